@@ -0,0 +1,47 @@
+package alternate8888.machine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Fetch, decode and execute of a single opcode, with memory filled with that
+ * opcode so that every step executes it again.
+ *
+ * @author Tabby Cromarty
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+  /**
+   * Octal opcodes: NOP, MOV B,C, MVI A, ADD B, INX H, DAD B, LDA, ANI.
+   */
+  @Param({ "000", "101", "076", "200", "043", "011", "072", "346" })
+  public String opcode;
+
+  private CPU cpu;
+
+  @Setup
+  public void fill() {
+    final Memory memory = new Memory();
+    final int value = Integer.parseInt(opcode, 8);
+    for (int i = 0; i < Memory.SIZE; i++) {
+      memory.write(i, value);
+    }
+    cpu = new CPU(memory);
+  }
+
+  @Benchmark
+  public int step() {
+    return cpu.step();
+  }
+}
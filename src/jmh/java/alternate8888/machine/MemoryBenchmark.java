@@ -0,0 +1,79 @@
+package alternate8888.machine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reads and writes across the whole address space, through the primitive
+ * accessors and through the older register-addressed ones.
+ *
+ * @author Tabby Cromarty
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryBenchmark {
+
+  private static final int SPAN = 4096;
+
+  private final Memory memory = new Memory();
+  private final Register16Bit address = new Register16Bit();
+
+  private int base;
+
+  @Setup
+  public void fill() {
+    for (int i = 0; i < Memory.SIZE; i++) {
+      memory.write(i, i * 31);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPAN)
+  public int read() {
+    int sum = 0;
+    for (int i = 0; i < SPAN; i++) {
+      sum += memory.read(base + i);
+    }
+    base += SPAN;
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPAN)
+  public void write() {
+    for (int i = 0; i < SPAN; i++) {
+      memory.write(base + i, i);
+    }
+    base += SPAN;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPAN)
+  public int get() {
+    int sum = 0;
+    for (int i = 0; i < SPAN; i++) {
+      sum += memory.get((base + i) >> 8 & 0xff, i & 0xff);
+    }
+    base += SPAN;
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SPAN)
+  public void set() {
+    for (int i = 0; i < SPAN; i++) {
+      address.set((base + i) & 0xffff);
+      memory.set(address, i);
+    }
+    base += SPAN;
+  }
+}
@@ -0,0 +1,100 @@
+package alternate8888.machine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * End-to-end speed on representative 8080 loops, run from RESET to HLT. The
+ * instructions and cycles counters report emulated instructions and clock
+ * cycles per second; divide the first by a million for MIPS.
+ *
+ * @author Tabby Cromarty
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProgramBenchmark {
+
+  public enum Program {
+    /**
+     * Fills 4K with a constant, one byte per iteration.
+     */
+    FILL(0041, 0x00, 0x20, 0021, 0x00, 0x10, 0066, 0xE5, 0043, 0033, 0172, 0263, 0302, 0x06, 0x00, 0166),
+    /**
+     * Multiplies 1234h by 5678h by shift and add, 200 times.
+     */
+    MULTIPLY(0076, 200, 0062, 0x00, 0x30, 0001, 0x34, 0x12, 0021, 0x78, 0x56, 0041, 0x00, 0x00, 0076, 16,
+             0051, 0353, 0051, 0353, 0322, 0x18, 0x00, 0011, 0075, 0302, 0x10, 0x00, 0072, 0x00, 0x30, 0075,
+             0062, 0x00, 0x30, 0302, 0x05, 0x00, 0166),
+    /**
+     * Adds an 8-digit packed BCD number into another with ADC and DAA, 256
+     * times.
+     */
+    BCD(0016, 0x00, 0041, 0x00, 0x30, 0021, 0x00, 0x31, 0006, 4, 0267, 0032, 0216, 0047, 0167, 0043, 0023, 0005,
+        0302, 0x0B, 0x00, 0015, 0302, 0x02, 0x00, 0166);
+
+    private final int[] code;
+
+    Program(final int... code) {
+      this.code = code;
+    }
+  }
+
+  public enum Engine {
+    INTERPRETER, DECODE_CACHE, TRANSLATOR
+  }
+
+  @Param
+  public Program program;
+
+  @Param
+  public Engine engine;
+
+  private CPU cpu;
+  private long instructionsPerRun;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Counters {
+
+    public long instructions;
+    public long cycles;
+  }
+
+  @Setup(Level.Trial)
+  public void load() {
+    final Memory memory = new Memory();
+    for (int i = 0; i < program.code.length; i++) {
+      memory.write(i, program.code[i]);
+    }
+    memory.write(0x3100, 0x99);
+    memory.write(0x3101, 0x87);
+    memory.write(0x3102, 0x65);
+    memory.write(0x3103, 0x43);
+
+    cpu = new CPU(memory);
+    while (!cpu.isHalted()) {
+      cpu.step();
+      instructionsPerRun++;
+    }
+    cpu.setDecodeCacheEnabled(engine == Engine.DECODE_CACHE);
+    cpu.setTranslationEnabled(engine == Engine.TRANSLATOR);
+  }
+
+  @Benchmark
+  public void run(final Counters counters) {
+    cpu.reset();
+    counters.cycles += cpu.run(Long.MAX_VALUE / 2);
+    counters.instructions += instructionsPerRun;
+  }
+}
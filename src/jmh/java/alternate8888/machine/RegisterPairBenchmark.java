@@ -0,0 +1,39 @@
+package alternate8888.machine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Get and set of a 16-bit pair built from two 8-bit registers, standalone and
+ * as the CPU's view of H and L.
+ *
+ * @author Tabby Cromarty
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegisterPairBenchmark {
+
+  private final RegisterPair pair = new RegisterPair(new Register8Bit(), new Register8Bit());
+  private final Register hl = new CPU().getRegisterPair(2);
+
+  private int value;
+
+  @Benchmark
+  public int pairSetGet() {
+    pair.set(value++);
+    return pair.get();
+  }
+
+  @Benchmark
+  public int cpuViewSetGet() {
+    hl.set(value++);
+    return hl.get();
+  }
+}
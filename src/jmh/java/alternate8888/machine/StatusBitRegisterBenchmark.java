@@ -0,0 +1,61 @@
+package alternate8888.machine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Flag computation for every pair of 8-bit operands: the Sign, Zero and Parity
+ * table, the Aux Carry tables and the combined assignment the ALU uses.
+ *
+ * @author Tabby Cromarty
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StatusBitRegisterBenchmark {
+
+  private static final int PAIRS = 256 * 256;
+
+  private final StatusBitRegister status = new StatusBitRegister();
+
+  @Benchmark
+  @OperationsPerInvocation(256)
+  public int signZeroParity() {
+    int flags = 0;
+    for (int value = 0; value < 256; value++) {
+      flags ^= StatusBitRegister.signZeroParity(value);
+    }
+    return flags;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAIRS)
+  public int addition() {
+    for (int a = 0; a < 256; a++) {
+      for (int b = 0; b < 256; b++) {
+        final int result = a + b;
+        status.assignArithmetic(result & 0xff, StatusBitRegister.auxCarryAdd(a, b, result), result > 0xff);
+      }
+    }
+    return status.get();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAIRS)
+  public int subtraction() {
+    for (int a = 0; a < 256; a++) {
+      for (int b = 0; b < 256; b++) {
+        final int result = a - b;
+        status.assignArithmetic(result & 0xff, StatusBitRegister.auxCarrySubtract(a, b, result), result < 0);
+      }
+    }
+    return status.get();
+  }
+}
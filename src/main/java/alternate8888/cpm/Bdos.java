@@ -0,0 +1,86 @@
+package alternate8888.cpm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import alternate8888.machine.CPU;
+import alternate8888.machine.IoDevice;
+import alternate8888.machine.Memory;
+
+/**
+ * The few CP/M BDOS functions a test program needs, trapped into Java.
+ *
+ * The BDOS entry point jumps to a stub that writes to {@link #PORT} and
+ * returns; the write lands here, with the function number in C and its
+ * parameter in E or DE, as on a real system:
+ *
+ * <pre>
+ * 0  system reset: ends the program by jumping to the warm boot at 0000h
+ * 2  console output of the character in E
+ * 9  console output of the string at DE, up to a '$' or at most 64K
+ * </pre>
+ *
+ * Other functions are ignored. Console output is flushed at a system reset,
+ * and by {@link CpmRunner} when the program ends, rather than at every call.
+ *
+ * @author Tabby Cromarty
+ */
+class Bdos implements IoDevice {
+
+  static final int PORT = 0xFE;
+
+  private final CPU cpu;
+  private final Memory memory;
+  private final OutputStream console;
+
+  Bdos(final CPU cpu,
+       final Memory memory,
+       final OutputStream console) {
+    this.cpu = cpu;
+    this.memory = memory;
+    this.console = console;
+  }
+
+  @Override
+  public int in(final int port) {
+    return 0xFF;
+  }
+
+  @Override
+  public void out(final int port,
+                  final int value) {
+    try {
+      switch (cpu.getRegisterValue(CPU.REG_C)) {
+        case 0:
+          console.flush();
+          cpu.setPC(0);
+          break;
+        case 2:
+          console.write(cpu.getRegisterValue(CPU.REG_E));
+          break;
+        case 9:
+          printString(cpu.getRegisterPairValue(CPU.PAIR_D));
+          break;
+        default:
+          break;
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Writes the string at the address up to a '$', or the whole of memory once
+   * round if there is none.
+   */
+  private void printString(final int address) throws IOException {
+    for (int i = 0; i < Memory.SIZE; i++) {
+      final int c = memory.read((address + i) & 0xffff);
+      if (c == '$') {
+        return;
+      }
+      console.write(c);
+    }
+  }
+}
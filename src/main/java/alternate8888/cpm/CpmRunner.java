@@ -0,0 +1,199 @@
+package alternate8888.cpm;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import alternate8888.machine.CPU;
+import alternate8888.machine.Computer;
+import alternate8888.machine.Memory;
+import alternate8888.machine.Profiler;
+import alternate8888.machine.Tracer;
+
+/**
+ * Runs a CP/M .COM program headless, such as the 8080 exercisers TST8080,
+ * 8080PRE, CPUTEST and 8080EXM, and reports how fast it ran.
+ *
+ * The program is loaded at 0100h on a bare machine with just enough of CP/M
+ * around it: a warm boot at 0000h that halts, and a BDOS entry at 0005h that
+ * jumps to a stub near the top of memory, so that programs which take the top
+ * of the TPA from 0006h put their stack there. Console output goes to the
+ * given stream; see {@link Bdos} for the functions handled.
+ *
+ * <pre>
+ * java alternate8888.cpm.CpmRunner [--decode-cache | --translate] [--trace FILE] [--profile FILE] PROGRAM.COM
+ * </pre>
+ *
+ * With --trace every instruction is recorded to FILE, in the format described
+ * by {@link Tracer}. With --profile a hot-spot report is printed after the run
+ * and the call stacks are written to FILE for a flame graph; see
+ * {@link Profiler}.
+ *
+ * @author Tabby Cromarty
+ */
+public class CpmRunner {
+
+  public static final int TPA = 0x0100;
+
+  private static final int BDOS_STUB = 0xFF00;
+  private static final long SLICE_CYCLES = 1_000_000;
+
+  private final Computer computer = new Computer();
+  private final OutputStream console;
+
+  /**
+   * The counts from a run.
+   */
+  public static class Result {
+
+    private final long instructions;
+    private final long cycles;
+    private final long nanos;
+
+    Result(final long instructions,
+           final long cycles,
+           final long nanos) {
+      this.instructions = instructions;
+      this.cycles = cycles;
+      this.nanos = nanos;
+    }
+
+    public long getInstructions() {
+      return instructions;
+    }
+
+    public long getCycles() {
+      return cycles;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    /**
+     * @return millions of emulated instructions per second of wall-clock time
+     */
+    public double getMips() {
+      return (nanos == 0) ? 0 : ((instructions * 1000.0) / nanos);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%,d instructions, %,d cycles in %.3f s: %.1f MIPS", instructions, cycles,
+                           nanos / (double) TimeUnit.SECONDS.toNanos(1), getMips());
+    }
+  }
+
+  public CpmRunner(final OutputStream console) {
+    this.console = console;
+    final Memory memory = computer.getMemory();
+    // 0000h: HLT (warm boot)
+    memory.write(0x0000, 0166);
+    // 0005h: JMP BDOS_STUB
+    memory.write(0x0005, 0303);
+    memory.write(0x0006, BDOS_STUB & 0xff);
+    memory.write(0x0007, BDOS_STUB >> 8);
+    // BDOS_STUB: OUT PORT; RET
+    memory.write(BDOS_STUB, 0323);
+    memory.write(BDOS_STUB + 1, Bdos.PORT);
+    memory.write(BDOS_STUB + 2, 0311);
+    computer.attach(new Bdos(computer.getCPU(), memory, console), Bdos.PORT);
+  }
+
+  public Computer getComputer() {
+    return computer;
+  }
+
+  /**
+   * Loads a program at 0100h.
+   */
+  public void load(final byte[] program) {
+    if (program.length > (BDOS_STUB - TPA)) {
+      throw new IllegalArgumentException("Program too large: " + program.length + " bytes");
+    }
+    final Memory memory = computer.getMemory();
+    for (int i = 0; i < program.length; i++) {
+      memory.write(TPA + i, program[i]);
+    }
+  }
+
+  /**
+   * Runs the loaded program from 0100h until it returns to CP/M, then flushes
+   * the console.
+   */
+  public Result run() throws IOException {
+    final CPU cpu = computer.getCPU();
+    cpu.reset();
+    cpu.getProgramCounter().set(TPA);
+    // The stack holds 0000h, so a RET from the program lands on the warm boot
+    computer.getMemory().write(BDOS_STUB - 2, 0x00);
+    computer.getMemory().write(BDOS_STUB - 1, 0x00);
+    cpu.getStackPointer().set(BDOS_STUB - 2);
+
+    final long instructions = cpu.getInstructions();
+    final long cycles = cpu.getCycles();
+    final long start = System.nanoTime();
+    while (!cpu.isHalted()) {
+      cpu.run(SLICE_CYCLES);
+    }
+    final long nanos = System.nanoTime() - start;
+    console.flush();
+    return new Result(cpu.getInstructions() - instructions, cpu.getCycles() - cycles, nanos);
+  }
+
+  public static void main(final String[] args) throws IOException {
+    String file = null;
+    boolean decodeCache = false;
+    boolean translate = false;
+    String trace = null;
+    String profile = null;
+    for (int i = 0; i < args.length; i++) {
+      if ("--decode-cache".equals(args[i])) {
+        decodeCache = true;
+      } else if ("--translate".equals(args[i])) {
+        translate = true;
+      } else if ("--trace".equals(args[i]) && ((i + 1) < args.length)) {
+        trace = args[++i];
+      } else if ("--profile".equals(args[i]) && ((i + 1) < args.length)) {
+        profile = args[++i];
+      } else {
+        file = args[i];
+      }
+    }
+    if (file == null) {
+      System.err.println("Usage: CpmRunner [--decode-cache | --translate] [--trace FILE] [--profile FILE] PROGRAM.COM");
+      System.exit(2);
+    }
+
+    final CpmRunner runner = new CpmRunner(new BufferedOutputStream(System.out));
+    runner.getComputer().getCPU().setDecodeCacheEnabled(decodeCache);
+    runner.getComputer().getCPU().setTranslationEnabled(translate);
+    runner.load(Files.readAllBytes(Paths.get(file)));
+    final Tracer tracer = (trace == null) ? null : new Tracer(Paths.get(trace));
+    runner.getComputer().getCPU().setTracer(tracer);
+    final Profiler profiler = (profile == null) ? null : new Profiler();
+    runner.getComputer().getCPU().setProfiler(profiler);
+    final Result result;
+    try {
+      result = runner.run();
+    } finally {
+      if (tracer != null) {
+        runner.getComputer().getCPU().setTracer(null);
+        tracer.close();
+      }
+    }
+    System.out.println();
+    System.err.println(result);
+    if (profiler != null) {
+      profiler.writeReport(System.err, 20);
+      try (Writer out = Files.newBufferedWriter(Paths.get(profile))) {
+        profiler.writeCollapsedStacks(out);
+      }
+    }
+  }
+}
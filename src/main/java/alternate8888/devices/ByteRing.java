@@ -0,0 +1,100 @@
+package alternate8888.devices;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size ring of bytes for exactly one producer thread and one consumer
+ * thread. Neither side ever locks: each side owns one index and publishes it
+ * with an ordered store, which is all the other side needs to see the bytes.
+ *
+ * @author Tabby Cromarty
+ */
+final class ByteRing {
+
+  private final byte[] buffer;
+  private final int mask;
+
+  /**
+   * Index of the next byte to read; written only by the consumer.
+   */
+  private final AtomicLong head = new AtomicLong();
+  /**
+   * Index of the next byte to write; written only by the producer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * @param capacity size in bytes, a power of two
+   */
+  ByteRing(final int capacity) {
+    if ((capacity <= 0) || (Integer.bitCount(capacity) != 1)) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+    buffer = new byte[capacity];
+    mask = capacity - 1;
+  }
+
+  int capacity() {
+    return buffer.length;
+  }
+
+  int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  boolean isEmpty() {
+    return tail.get() == head.get();
+  }
+
+  /**
+   * Producer side: appends a byte.
+   *
+   * @return false if the ring is full
+   */
+  boolean offer(final int value) {
+    final long t = tail.get();
+    if ((t - head.get()) == buffer.length) {
+      return false;
+    }
+    buffer[(int) t & mask] = (byte) value;
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * Consumer side: removes the oldest byte.
+   *
+   * @return the byte, or -1 if the ring is empty
+   */
+  int poll() {
+    final long h = head.get();
+    if (h == tail.get()) {
+      return -1;
+    }
+    final int value = buffer[(int) h & mask] & 0xFF;
+    head.lazySet(h + 1);
+    return value;
+  }
+
+  /**
+   * Consumer side: writes everything buffered to the channel, at most two
+   * writes however many bytes are waiting.
+   */
+  void drainTo(final WritableByteChannel channel) throws IOException {
+    long h = head.get();
+    final long t = tail.get();
+    while (h < t) {
+      final int start = (int) h & mask;
+      final int length = (int) Math.min(t - h, buffer.length - start);
+      final ByteBuffer chunk = ByteBuffer.wrap(buffer, start, length);
+      while (chunk.hasRemaining()) {
+        channel.write(chunk);
+      }
+      h += length;
+      head.lazySet(h);
+    }
+  }
+}
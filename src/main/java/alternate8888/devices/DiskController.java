@@ -0,0 +1,214 @@
+package alternate8888.devices;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import alternate8888.machine.IoDevice;
+
+/**
+ * The MITS 88-DCDD floppy disk controller, on its standard ports 10, 11 and 12
+ * octal (08, 09 and 0A hex). Attach with
+ * {@code computer.attach(controller, DiskController.PORTS)}.
+ *
+ * <pre>
+ * 08 OUT  select drive (bits 0-3), or deselect if bit 7 is set
+ * 08 IN   status, active low: 0 ENWD, 1 MOVE HEAD, 2 HEAD, 5 INTE, 6 TRACK 0,
+ *         7 NRDA
+ * 09 OUT  control: 0 step in, 1 step out, 2 head load, 3 head unload,
+ *         4 interrupt enable, 5 interrupt disable, 7 write enable
+ * 09 IN   sector position: bit 0 sector true (active low), bits 1-5 sector
+ * 0A IN   next byte of the current sector
+ * 0A OUT  next byte to write to the current sector
+ * </pre>
+ *
+ * The disk rotates as the program reads the sector position: every other read
+ * moves on to the next sector and rewinds the byte position, which is how boot
+ * loaders and DOS find the sector they want.
+ *
+ * @author Tabby Cromarty
+ */
+public class DiskController implements IoDevice, Closeable {
+
+  public static final int[] PORTS = { 0x08, 0x09, 0x0A };
+  public static final int MAX_DRIVES = 16;
+
+  private static final int ENWD = 0x01;
+  private static final int MOVE_HEAD = 0x02;
+  private static final int HEAD = 0x04;
+  private static final int INTE = 0x20;
+  private static final int TRACK_0 = 0x40;
+  private static final int NRDA = 0x80;
+  private static final int STATUS_IDLE = ENWD | MOVE_HEAD | HEAD | INTE | TRACK_0 | NRDA;
+
+  private static final int STEP_IN = 0x01;
+  private static final int STEP_OUT = 0x02;
+  private static final int HEAD_LOAD = 0x04;
+  private static final int HEAD_UNLOAD = 0x08;
+  private static final int INTERRUPT_ENABLE = 0x10;
+  private static final int INTERRUPT_DISABLE = 0x20;
+  private static final int WRITE_ENABLE = 0x80;
+
+  private final DiskDrive[] drives;
+
+  private DiskDrive selected;
+  private int position;
+  private boolean sectorTrue;
+  private boolean writing;
+  private boolean interruptsEnabled;
+
+  public DiskController() {
+    this(4);
+  }
+
+  public DiskController(final int driveCount) {
+    if ((driveCount < 1) || (driveCount > MAX_DRIVES)) {
+      throw new IllegalArgumentException("Drive count must be 1-" + MAX_DRIVES);
+    }
+    drives = new DiskDrive[driveCount];
+    for (int i = 0; i < driveCount; i++) {
+      drives[i] = new DiskDrive();
+    }
+  }
+
+  public DiskDrive getDrive(final int drive) {
+    return drives[drive];
+  }
+
+  @Override
+  public int in(final int port) {
+    switch (port & 0x03) {
+      case 0:
+        return status();
+      case 1:
+        return sectorPosition();
+      default:
+        return readData();
+    }
+  }
+
+  @Override
+  public void out(final int port,
+                  final int value) {
+    switch (port & 0x03) {
+      case 0:
+        select(value);
+        break;
+      case 1:
+        control(value);
+        break;
+      default:
+        writeData(value);
+        break;
+    }
+  }
+
+  /**
+   * Forces all drives' changes out to their image files.
+   */
+  public void flush() {
+    for (final DiskDrive drive : drives) {
+      drive.flush();
+    }
+  }
+
+  /**
+   * Flushes and unmounts all drives.
+   */
+  @Override
+  public void close() throws IOException {
+    for (final DiskDrive drive : drives) {
+      drive.close();
+    }
+  }
+
+  private void select(final int value) {
+    writing = false;
+    final int drive = value & 0x0F;
+    if (((value & 0x80) != 0) || (drive >= drives.length) || !drives[drive].isMounted()) {
+      selected = null;
+    } else {
+      selected = drives[drive];
+    }
+  }
+
+  private int status() {
+    if (selected == null) {
+      return 0xFF;
+    }
+    int status = STATUS_IDLE;
+    status &= ~MOVE_HEAD;
+    if (writing) {
+      status &= ~ENWD;
+    }
+    if (selected.headLoaded) {
+      status &= ~(HEAD | NRDA);
+    }
+    if (interruptsEnabled) {
+      status &= ~INTE;
+    }
+    if (selected.track == 0) {
+      status &= ~TRACK_0;
+    }
+    return status;
+  }
+
+  private void control(final int value) {
+    if (selected == null) {
+      return;
+    }
+    if (((value & STEP_IN) != 0) && (selected.track < (DiskDrive.TRACKS - 1))) {
+      selected.track++;
+    }
+    if (((value & STEP_OUT) != 0) && (selected.track > 0)) {
+      selected.track--;
+    }
+    if ((value & HEAD_LOAD) != 0) {
+      selected.headLoaded = true;
+    }
+    if ((value & HEAD_UNLOAD) != 0) {
+      selected.headLoaded = false;
+    }
+    if ((value & INTERRUPT_ENABLE) != 0) {
+      interruptsEnabled = true;
+    }
+    if ((value & INTERRUPT_DISABLE) != 0) {
+      interruptsEnabled = false;
+    }
+    if ((value & WRITE_ENABLE) != 0) {
+      writing = true;
+      position = 0;
+    }
+  }
+
+  private int sectorPosition() {
+    if ((selected == null) || !selected.headLoaded) {
+      return 0xFF;
+    }
+    if (sectorTrue) {
+      sectorTrue = false;
+    } else {
+      selected.sector = (selected.sector + 1) % DiskDrive.SECTORS;
+      position = 0;
+      writing = false;
+      sectorTrue = true;
+    }
+    return 0xC0 | (selected.sector << 1) | (sectorTrue ? 0 : 1);
+  }
+
+  private int readData() {
+    if ((selected == null) || (position >= DiskDrive.SECTOR_SIZE)) {
+      return 0xFF;
+    }
+    return selected.read(position++);
+  }
+
+  private void writeData(final int value) {
+    if ((selected == null) || !writing) {
+      return;
+    }
+    selected.write(position++, value);
+    if (position >= DiskDrive.SECTOR_SIZE) {
+      writing = false;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package alternate8888.devices;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An 8" floppy drive of the 88-DCDD, holding a disk image file.
+ *
+ * The image is memory-mapped rather than read into the heap, so sector reads
+ * and writes go straight to the mapped pages and the operating system writes
+ * changed pages back lazily. {@link #flush()} forces them out; call it, or
+ * {@link #close()}, before shutting down.
+ *
+ * The image layout is the usual raw one: 77 tracks of 32 sectors of 137 bytes,
+ * track by track.
+ *
+ * @author Tabby Cromarty
+ */
+public class DiskDrive implements Closeable {
+
+  public static final int TRACKS = 77;
+  public static final int SECTORS = 32;
+  public static final int SECTOR_SIZE = 137;
+  public static final int IMAGE_SIZE = TRACKS * SECTORS * SECTOR_SIZE;
+
+  private FileChannel file;
+  private MappedByteBuffer image;
+  private boolean readOnly;
+
+  int track;
+  int sector;
+  boolean headLoaded;
+
+  /**
+   * Mounts a disk image. A writable image shorter than a full disk is extended
+   * to full size; a read-only one reads as zeroes past its end.
+   */
+  public void mount(final Path path,
+                    final boolean readOnly) throws IOException {
+    close();
+    final FileChannel channel = readOnly ? FileChannel.open(path, StandardOpenOption.READ)
+        : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    try {
+      final long size = readOnly ? Math.min(channel.size(), IMAGE_SIZE) : IMAGE_SIZE;
+      image = channel.map(readOnly ? MapMode.READ_ONLY : MapMode.READ_WRITE, 0, size);
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+    file = channel;
+    this.readOnly = readOnly;
+    track = 0;
+    sector = 0;
+    headLoaded = false;
+  }
+
+  public boolean isMounted() {
+    return image != null;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * Forces changes to the image out to the file.
+   */
+  public void flush() {
+    if ((image != null) && !readOnly) {
+      image.force();
+    }
+  }
+
+  /**
+   * Flushes and unmounts the image.
+   */
+  @Override
+  public void close() throws IOException {
+    if (file != null) {
+      flush();
+      image = null;
+      file.close();
+      file = null;
+    }
+  }
+
+  int read(final int position) {
+    final int offset = offset(position);
+    if ((image == null) || (offset >= image.limit())) {
+      return 0;
+    }
+    return image.get(offset) & 0xFF;
+  }
+
+  void write(final int position,
+             final int value) {
+    if ((image != null) && !readOnly) {
+      image.put(offset(position), (byte) value);
+    }
+  }
+
+  private int offset(final int position) {
+    return (((track * SECTORS) + sector) * SECTOR_SIZE) + position;
+  }
+}
@@ -0,0 +1,132 @@
+package alternate8888.devices;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The terminal end of a serial board: buffered output to a channel and a queue
+ * of typed input.
+ *
+ * Characters the CPU sends go into a ring buffer and reach the channel in
+ * batches: when the buffer fills, when the program sits polling for input that
+ * has not arrived (so a prompt is always visible before the user has to answer
+ * it), or when the host calls {@link #flush()}. Hosts should call flush
+ * periodically for programs that print without ever reading, and once at
+ * shutdown.
+ *
+ * Input is queued with {@link #type} from any thread and read by the CPU
+ * without locking.
+ *
+ * @author Tabby Cromarty
+ */
+public class SerialChannel {
+
+  public static final int BUFFER_SIZE = 4096;
+
+  /**
+   * Consecutive status polls finding no input, with no output in between, after
+   * which the program is taken to be waiting for the user.
+   */
+  private static final int IDLE_POLLS_BEFORE_FLUSH = 64;
+
+  private final ByteRing output = new ByteRing(BUFFER_SIZE);
+  private final ByteRing input = new ByteRing(BUFFER_SIZE);
+  private final WritableByteChannel sink;
+  private final OutputStream stream;
+
+  private int idlePolls;
+
+  public SerialChannel(final OutputStream out) {
+    this(Channels.newChannel(out), out);
+  }
+
+  public SerialChannel(final WritableByteChannel sink) {
+    this(sink, null);
+  }
+
+  private SerialChannel(final WritableByteChannel sink,
+                        final OutputStream stream) {
+    this.sink = sink;
+    this.stream = stream;
+  }
+
+  /**
+   * Queues typed characters for the CPU to read.
+   *
+   * @return the number of bytes accepted; fewer than given if the input buffer
+   *         is full
+   */
+  public synchronized int type(final byte[] data,
+                               final int offset,
+                               final int length) {
+    for (int i = 0; i < length; i++) {
+      if (!input.offer(data[offset + i])) {
+        return i;
+      }
+    }
+    return length;
+  }
+
+  public int type(final byte[] data) {
+    return type(data, 0, data.length);
+  }
+
+  /**
+   * Writes all buffered output to the channel.
+   */
+  public synchronized void flush() {
+    try {
+      output.drainTo(sink);
+      if (stream != null) {
+        stream.flush();
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return the number of output bytes waiting to be flushed
+   */
+  public int pendingOutput() {
+    return output.size();
+  }
+
+  /**
+   * Called by the board when the CPU reads its status.
+   */
+  boolean isInputReady() {
+    if (!input.isEmpty()) {
+      idlePolls = 0;
+      return true;
+    }
+    if ((++idlePolls >= IDLE_POLLS_BEFORE_FLUSH) && !output.isEmpty()) {
+      idlePolls = 0;
+      flush();
+    }
+    return false;
+  }
+
+  /**
+   * Called by the board when the CPU reads its data port.
+   *
+   * @return the next typed byte, or 0 if there is none
+   */
+  int read() {
+    final int value = input.poll();
+    return value < 0 ? 0 : value;
+  }
+
+  /**
+   * Called by the board when the CPU writes its data port.
+   */
+  void write(final int value) {
+    idlePolls = 0;
+    while (!output.offer(value)) {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package alternate8888.devices;
+
+import alternate8888.machine.IoDevice;
+
+/**
+ * One port of the MITS 88-2SIO serial board, a Motorola 6850 ACIA with its
+ * control/status register on the even port and data on the odd port. The first
+ * port of the board is normally at 20 and 21 octal (10 and 11 hex), where Altair
+ * BASIC and most monitors expect the console.
+ *
+ * Attach with {@code computer.attach(board, base, base + 1)}.
+ *
+ * @author Tabby Cromarty
+ */
+public class Sio2Board implements IoDevice {
+
+  public static final int DEFAULT_PORT = 0x10;
+
+  /**
+   * Receive Data Register Full.
+   */
+  private static final int RDRF = 0x01;
+  /**
+   * Transmit Data Register Empty.
+   */
+  private static final int TDRE = 0x02;
+
+  private final SerialChannel channel;
+
+  public Sio2Board(final SerialChannel channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public int in(final int port) {
+    if ((port & 1) == 0) {
+      return TDRE | (channel.isInputReady() ? RDRF : 0);
+    }
+    return channel.read();
+  }
+
+  @Override
+  public void out(final int port,
+                  final int value) {
+    if ((port & 1) == 1) {
+      channel.write(value);
+    }
+    // Control register writes (master reset, word format) need no emulation.
+  }
+}
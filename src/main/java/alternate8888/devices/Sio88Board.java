@@ -0,0 +1,48 @@
+package alternate8888.devices;
+
+import alternate8888.machine.IoDevice;
+
+/**
+ * The original MITS 88-SIO serial board: status on the even port, data on the
+ * odd port, normally at 0 and 1. The status flags are active low.
+ *
+ * Attach with {@code computer.attach(board, base, base + 1)}.
+ *
+ * @author Tabby Cromarty
+ */
+public class Sio88Board implements IoDevice {
+
+  public static final int DEFAULT_PORT = 0x00;
+
+  /**
+   * Clear when a character has been received.
+   */
+  private static final int INPUT_NOT_READY = 0x01;
+  /**
+   * Clear when the board can accept a character to send.
+   */
+  private static final int OUTPUT_NOT_READY = 0x80;
+
+  private final SerialChannel channel;
+
+  public Sio88Board(final SerialChannel channel) {
+    this.channel = channel;
+  }
+
+  @Override
+  public int in(final int port) {
+    if ((port & 1) == 0) {
+      // Output is buffered, so OUTPUT_NOT_READY is never raised.
+      return channel.isInputReady() ? 0 : INPUT_NOT_READY;
+    }
+    return channel.read();
+  }
+
+  @Override
+  public void out(final int port,
+                  final int value) {
+    if ((port & 1) == 1) {
+      channel.write(value);
+    }
+  }
+}
@@ -1,5 +1,15 @@
 package alternate8888.machine;
 
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.jfr.FlightRecorder;
+
 /**
  * @author Tabby Cromarty
  */
@@ -7,100 +17,287 @@ public class CPU {
 
   private static final int WORD_BITS = 16;
 
-  private final Register instructionRegister = new Register8Bit();
-  private final Register accumulator = new Register8Bit();
-  private final Register regB = new Register8Bit();
-  private final Register regC = new Register8Bit();
-  private final RegisterPair regPairB = new RegisterPair(regB, regC);
+  /**
+   * Clock cycles (T-states) taken by each opcode. Conditional calls and returns
+   * are listed at their not-taken cost; the extra cycles of a taken branch are
+   * added when it happens.
+   */
+  static final int[] CYCLES = {
+      4, 10, 7, 5, 5, 5, 7, 4, 4, 10, 7, 5, 5, 5, 7, 4,
+      4, 10, 7, 5, 5, 5, 7, 4, 4, 10, 7, 5, 5, 5, 7, 4,
+      4, 10, 16, 5, 5, 5, 7, 4, 4, 10, 16, 5, 5, 5, 7, 4,
+      4, 10, 13, 5, 10, 10, 10, 4, 4, 10, 13, 5, 5, 5, 7, 4,
+      5, 5, 5, 5, 5, 5, 7, 5, 5, 5, 5, 5, 5, 5, 7, 5,
+      5, 5, 5, 5, 5, 5, 7, 5, 5, 5, 5, 5, 5, 5, 7, 5,
+      5, 5, 5, 5, 5, 5, 7, 5, 5, 5, 5, 5, 5, 5, 7, 5,
+      7, 7, 7, 7, 7, 7, 7, 7, 5, 5, 5, 5, 5, 5, 7, 5,
+      4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+      4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+      4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+      4, 4, 4, 4, 4, 4, 7, 4, 4, 4, 4, 4, 4, 4, 7, 4,
+      5, 10, 10, 10, 11, 11, 7, 11, 5, 10, 10, 10, 11, 17, 7, 11,
+      5, 10, 10, 10, 11, 11, 7, 11, 5, 10, 10, 10, 11, 17, 7, 11,
+      5, 10, 10, 18, 11, 11, 7, 11, 5, 5, 10, 4, 11, 17, 7, 11,
+      5, 10, 10, 4, 11, 11, 7, 11, 5, 5, 10, 4, 11, 17, 7, 11 };
+
+  /**
+   * Extra cycles taken by a conditional call or return when the condition is
+   * met.
+   */
+  private static final int BRANCH_TAKEN_CYCLES = 6;
+
+  /**
+   * Length in bytes of each opcode, including its immediate data or address.
+   */
+  static final int[] LENGTHS = {
+      1, 3, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1,
+      1, 3, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1,
+      1, 3, 3, 1, 1, 1, 2, 1, 1, 1, 3, 1, 1, 1, 2, 1,
+      1, 3, 3, 1, 1, 1, 2, 1, 1, 1, 3, 1, 1, 1, 2, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+      1, 1, 3, 3, 3, 1, 2, 1, 1, 1, 3, 3, 3, 3, 2, 1,
+      1, 1, 3, 2, 3, 1, 2, 1, 1, 1, 3, 2, 3, 3, 2, 1,
+      1, 1, 3, 1, 3, 1, 2, 1, 1, 1, 3, 1, 3, 3, 2, 1,
+      1, 1, 3, 1, 3, 1, 2, 1, 1, 1, 3, 1, 3, 3, 2, 1 };
 
-  private final Register regD = new Register8Bit();
-  private final Register regE = new Register8Bit();
-  private final RegisterPair regPairD = new RegisterPair(regD, regE);
+  /*
+   * Register file indices, in the order of the 3-bit register field of the
+   * opcodes. M (6) is the memory byte addressed by H and L and has no slot of
+   * its own.
+   */
+  public static final int REG_B = 0;
+  public static final int REG_C = 1;
+  public static final int REG_D = 2;
+  public static final int REG_E = 3;
+  public static final int REG_H = 4;
+  public static final int REG_L = 5;
+  public static final int REG_M = 6;
+  public static final int REG_A = 7;
 
-  private final Register regH = new Register8Bit();
-  private final Register regL = new Register8Bit();
-  private final RegisterPair regPairH = new RegisterPair(regH, regL);
+  /*
+   * Register pairs, in the order of the 2-bit register pair field of the
+   * opcodes. Pair 3 is the Stack Pointer, except for PUSH and POP where it is
+   * PSW.
+   */
+  public static final int PAIR_B = 0;
+  public static final int PAIR_D = 1;
+  public static final int PAIR_H = 2;
+  public static final int PAIR_SP = 3;
 
+  private final int[] registers = new int[8];
+  private int instructionRegister;
+  private int programCounter;
+  private int stackPointer;
   private final StatusBitRegister statusBits = new StatusBitRegister();
-  private final RegisterPair regPairPSW = new RegisterPair(statusBits, accumulator);
+  private final Memory ram;
+
+  private final InterruptController interrupts;
+  private final IoBus io;
+
+  /**
+   * The interrupt flip-flop, set by EI and cleared by DI or by accepting an
+   * interrupt.
+   */
+  private boolean interruptsEnabled;
+
+  /**
+   * Set by HLT; cleared when an interrupt is accepted.
+   */
+  private boolean halted;
+
+  /**
+   * Total clock cycles executed since the CPU was created.
+   */
+  private long cycles;
+
+  /**
+   * Total instructions executed since the CPU was created, counting each
+   * accepted interrupt as the RST it executes.
+   */
+  private long instructions;
+
+  /**
+   * Interrupts accepted since the CPU was created.
+   */
+  private long interruptCount;
+
+  /**
+   * Wall-clock time spent halted, not counting the current halt, and when the
+   * current halt began. Only HLT and the interrupt that ends it touch these.
+   */
+  private long haltedNanos;
+  private long haltedSince;
+
+  private final Operation[] operations = buildOperationTable();
+
+  private final Debugger debugger;
+
+  private static final AtomicLong NEXT_ID = new AtomicLong();
+
+  /**
+   * Identifies the machine in JFR events.
+   */
+  private final long id = NEXT_ID.incrementAndGet();
+
+  /**
+   * Whether JFR had been set up in this JVM at the start of the current slice
+   * or step. Until it has, no event can be enabled, and the event classes are
+   * not touched: loading the first of them sets up JFR, which takes a few
+   * hundred milliseconds.
+   */
+  private boolean flightRecorder;
+
+  /**
+   * The JFR events in progress, if those event types are being recorded.
+   */
+  private HaltEvent haltEvent;
+  private IoBurstEvent ioBurstEvent;
+
+  private Tracer tracer;
+
+  private Profiler profiler;
+
+  /**
+   * The accumulator of an attached {@link FrontPanel} showing intensity, owned
+   * by the CPU thread. The panel never touches it: it posts the next one to
+   * {@link #panelNext} and takes finished ones from {@link #panelDone}, and
+   * the CPU swaps them over at the start of each slice.
+   */
+  private FrontPanel.Accumulator panelAccumulator;
+  private final AtomicBoolean panelAttached = new AtomicBoolean();
+  private final AtomicReference<FrontPanel.Accumulator> panelNext = new AtomicReference<>();
+  private final AtomicReference<FrontPanel.Accumulator> panelDone = new AtomicReference<>();
+
+  /**
+   * Set while a tracer, profiler or panel accumulator is attached, so that
+   * {@link #run(long)} takes the instrumented loop.
+   */
+  private boolean instrumented;
+
+  /**
+   * The decoded instruction cache, when enabled: the handler for the
+   * instruction at each address, or null if it has not been decoded since it
+   * was last written.
+   */
+  private Operation[] decodedOperations;
+
+  /**
+   * For each decoded address, the operand in bits 0-15, opcode in bits 16-23,
+   * length in bits 24-25 and cycles in bits 26-30.
+   */
+  private int[] decodedWords;
+
+  /**
+   * Translates hot blocks to bytecode when enabled; null when interpreting.
+   */
+  private Translator translator;
+
+  /**
+   * Set when a write hits translated code, so that a running block can stop
+   * before executing instructions that may have changed.
+   */
+  private boolean codeModified;
+
+  /**
+   * An instruction handler, with any register or register pair named by the
+   * opcode already bound in. The operand is the instruction's immediate data or
+   * address, already fetched; it is 0 for single byte instructions.
+   */
+  @FunctionalInterface
+  private interface Operation {
 
-  private final Register16Bit programCounter = new Register16Bit();
-  private final Register stackPointer = new Register16Bit();
-  private final Memory ram = new Memory();
+    void execute(int operand);
+  }
 
-  private volatile Boolean interruptsEnabled = Boolean.FALSE;
+  public CPU() {
+    this(new Memory());
+  }
 
-  private void stackPush(final Register16Bit register) {
-    stackPush(register.high, register.low);
+  public CPU(final Memory ram) {
+    this(ram, new InterruptController(), new IoBus());
   }
 
-  private void stackPush(final RegisterPair pair) {
-    stackPush(pair.getHigh(), pair.getLow());
+  public CPU(final Memory ram,
+             final InterruptController interrupts,
+             final IoBus io) {
+    this.ram = ram;
+    this.interrupts = interrupts;
+    this.io = io;
+    this.debugger = new Debugger(ram);
   }
 
-  private void stackPush(final int high,
-                         final int low) {
-    decrement(stackPointer);
-    ram.set(stackPointer, high);
-    decrement(stackPointer);
-    ram.set(stackPointer, low);
+  private int getPair(final int pair) {
+    final int high = pair << 1;
+    return (registers[high] << 8) | registers[high + 1];
   }
 
-  private void stackPop(final RegisterPair pair) {
-    pair.setLow(ram.get(stackPointer));
-    increment(stackPointer);
-    pair.setHigh(ram.get(stackPointer));
-    increment(stackPointer);
+  private void setPair(final int pair,
+                       final int value) {
+    final int high = pair << 1;
+    registers[high] = (value >> 8) & 0xff;
+    registers[high + 1] = value & 0xff;
   }
 
-  private void checkAndSetStatusBits(final Register register) {
-    statusBits.assignSign((register.get() & 0x80) > 0);
-    statusBits.assignZero(register.get() == 0);
-    statusBits.assignParity(getParity(register.get(), register.getWidth()));
+  private int getPSW() {
+    return (registers[REG_A] << 8) | statusBits.get();
   }
 
-  private void increment(final Register register) {
-    register.set(increment(register.get(), register.getWidth()));
+  private void setPSW(final int value) {
+    registers[REG_A] = (value >> 8) & 0xff;
+    statusBits.set((value & 0xd7) | 0x02);
   }
 
-  private int increment(int data,
-                        final int bits) {
-    if (data == (bits == 8 ? 0xff : 0xffff)) {
-      data = 0;
-    } else {
-      statusBits.assignAuxCarry((bits == 8) && ((data & 0x0F) == 0x09));
-      data++;
-    }
-    return data;
+  private void stackPush(final int value) {
+    stackPointer = (stackPointer - 1) & 0xffff;
+    ram.write(stackPointer, value >> 8);
+    stackPointer = (stackPointer - 1) & 0xffff;
+    ram.write(stackPointer, value);
   }
 
-  private void decrement(final Register register) {
-    register.set(decrement(register.get(), register.getWidth()));
+  private int getHL() {
+    return (registers[REG_H] << 8) | registers[REG_L];
   }
 
-  private int decrement(int data,
-                        final int bits) {
-    if (data == 0x00) {
-      data = (bits == 8 ? 0xff : 0xffff);
-    } else {
-      statusBits.assignAuxCarry((bits == 8) && ((data & 0x0F) == 0x10));
-      data--;
+  /**
+   * Evaluates the 3-bit condition field of a conditional jump, call or return:
+   * NZ, Z, NC, C, PO, PE, P, M.
+   */
+  private boolean condition(final int ccc) {
+    switch (ccc) {
+      case 0:
+        return !statusBits.isZero();
+      case 1:
+        return statusBits.isZero();
+      case 2:
+        return !statusBits.isCarry();
+      case 3:
+        return statusBits.isCarry();
+      case 4:
+        return !statusBits.isParity();
+      case 5:
+        return statusBits.isParity();
+      case 6:
+        return !statusBits.isSign();
+      case 7:
+        return statusBits.isSign();
+      default:
+        throw new RuntimeException("Invalid condition number");
     }
-    return data;
   }
 
-  private boolean getParity(final int data,
-                            final int bits) {
-    int parityCount = 0;
-    for (int i = bits - 1; i >= 0; i--) {
-      if ((data & i) > 0) {
-        parityCount++;
-      }
-      if ((parityCount % 2) != 0) {
-        return true;
-      }
-    }
-    return false;
+  private int stackPop() {
+    final int low = ram.read(stackPointer);
+    stackPointer = (stackPointer + 1) & 0xffff;
+    final int high = ram.read(stackPointer);
+    stackPointer = (stackPointer + 1) & 0xffff;
+    return (high << 8) | low;
   }
 
   ////////////////////////////////
@@ -119,11 +316,11 @@ public class CPU {
    *
    * Status Bits: Unaffected
    */
-  private void input() {
-    // TODO: Implement simulated external devices
-    increment(programCounter);
-    // int device = ram.get(programCounter);
-    // accumulator.set(0);
+  private void input(final int device) {
+    if (flightRecorder && IoBurstEvent.PROBE.isEnabled()) {
+      recordIo(device, false);
+    }
+    registers[REG_A] = io.in(device);
   }
 
   /**
@@ -134,9 +331,40 @@ public class CPU {
    *
    * Status Bits: Unaffected
    */
-  private void output() {
-    // TODO: Implement simulated external devices
-    increment(programCounter);
+  private void output(final int device) {
+    if (flightRecorder && IoBurstEvent.PROBE.isEnabled()) {
+      recordIo(device, true);
+    }
+    io.out(device, registers[REG_A]);
+  }
+
+  /**
+   * Adds an I/O operation to the JFR burst in progress, or starts a new burst
+   * if it is to another port or in the other direction.
+   */
+  private void recordIo(final int port,
+                        final boolean output) {
+    final IoBurstEvent burst = ioBurstEvent;
+    if ((burst != null) && (burst.port == port) && (burst.output == output)) {
+      burst.count++;
+      return;
+    }
+    endIoBurst();
+    final IoBurstEvent next = new IoBurstEvent();
+    next.begin();
+    next.machine = id;
+    next.port = port;
+    next.output = output;
+    next.count = 1;
+    ioBurstEvent = next;
+  }
+
+  private void endIoBurst() {
+    final IoBurstEvent burst = ioBurstEvent;
+    if (burst != null) {
+      burst.commit();
+      ioBurstEvent = null;
+    }
   }
 
   ////////////////////////////
@@ -168,14 +396,64 @@ public class CPU {
    * Program Counter to the next instruction address and stops the computer until
    * an interrupt occurs.
    *
+   * The CPU only records that it is halted; {@link #run(long)} returns at once
+   * and the thread driving it can park in {@link #awaitInterrupt(long)}.
+   *
    * Status Bits: Unaffected
    */
   private void haltInstruction() {
-    increment(programCounter);
-    synchronized (interruptsEnabled) {
-      try {
-        interruptsEnabled.wait();
-      } catch (final InterruptedException ignored) {
+    if (!halted) {
+      haltedSince = System.nanoTime();
+      if (flightRecorder && HaltEvent.PROBE.isEnabled()) {
+        haltEvent = new HaltEvent();
+        haltEvent.begin();
+        haltEvent.machine = id;
+        haltEvent.address = programCounter;
+      }
+    }
+    halted = true;
+  }
+
+  /**
+   * Leaves the halt state, adding the time spent in it to the halted time.
+   */
+  private void wake() {
+    if (halted) {
+      haltedNanos += System.nanoTime() - haltedSince;
+      halted = false;
+      if (haltEvent != null) {
+        haltEvent.commit();
+        haltEvent = null;
+      }
+    }
+  }
+
+  /**
+   * Accepts a pending interrupt request if the interrupt flip-flop is set. The
+   * instruction following EI always executes before an interrupt is accepted, so
+   * that EI; RET can leave an interrupt routine without nesting.
+   *
+   * Accepting an interrupt clears the flip-flop and the halt, and executes the
+   * RST instruction for the requested vector.
+   */
+  private void checkInterrupts() {
+    if (interruptsEnabled && (instructionRegister != 0373) && interrupts.isPending()) {
+      final int vector = interrupts.acknowledge();
+      if (vector >= 0) {
+        if (flightRecorder && InterruptEvent.PROBE.isEnabled()) {
+          final InterruptEvent event = new InterruptEvent();
+          event.machine = id;
+          event.vector = vector;
+          event.address = programCounter;
+          event.halted = halted;
+          event.commit();
+        }
+        interruptsEnabled = false;
+        wake();
+        cycles += CYCLES[0307 | (vector << 3)];
+        instructions++;
+        interruptCount++;
+        restartInstruction(vector);
       }
     }
   }
@@ -203,7 +481,7 @@ public class CPU {
    */
   private void restartInstruction(final int exp) {
     stackPush(programCounter);
-    programCounter.set(exp);
+    programCounter = exp << 3;
   }
 
   ////////////////////////////
@@ -246,29 +524,6 @@ public class CPU {
   ///// SINGLE REGISTER INSTRUCTIONS /////
   ////////////////////////////////////////
 
-  private Register getSingleRegister(final int reg) {
-    switch (reg) {
-      case 0:
-        return regB;
-      case 1:
-        return regC;
-      case 2:
-        return regD;
-      case 3:
-        return regE;
-      case 4:
-        return regH;
-      case 5:
-        return regL;
-      case 6:
-        return ram.address(regPairH);
-      case 7:
-        return accumulator;
-      default:
-        throw new RuntimeException("Invalid register number");
-    }
-  }
-
   /**
    * INR (INCREMENT REGISTER OR MEMORY) - The specified byte is incremented by
    * one.
@@ -280,10 +535,10 @@ public class CPU {
    * to be incremented by 1. If the initial byte is 00 000 000, the incremented
    * byte will be 00 000 01.
    */
-  private void incrementRegisterOrMemory(final int reg) {
-    final Register register = getSingleRegister(reg);
-    increment(register);
-    checkAndSetStatusBits(register);
+  private int incrementRegisterOrMemory(final int value) {
+    final int result = (value + 1) & 0xff;
+    statusBits.assignSignZeroParityAuxCarry(result, StatusBitRegister.auxCarryAdd(value, 1, result));
+    return result;
   }
 
   /**
@@ -297,10 +552,10 @@ public class CPU {
    * to be decremented by 1. If the initial byte is 00 000 001, the decremented
    * byte will be 00 000 000.
    */
-  private void decrementRegisterOrMemory(final int reg) {
-    final Register register = getSingleRegister(reg);
-    decrement(register);
-    checkAndSetStatusBits(register);
+  private int decrementRegisterOrMemory(final int value) {
+    final int result = (value - 1) & 0xff;
+    statusBits.assignSignZeroParityAuxCarry(result, StatusBitRegister.auxCarrySubtract(value, 1, result));
+    return result;
   }
 
   /**
@@ -310,7 +565,7 @@ public class CPU {
    * Status Bits: Unaffected
    */
   private void complementAccumulator() {
-    accumulator.set(accumulator.get() ^ 0xFF);
+    registers[REG_A] ^= 0xFF;
   }
 
   /**
@@ -341,41 +596,171 @@ public class CPU {
    * 000 100.
    */
   private void decimalAdjustAccumulator() {
-    int msn = (accumulator.get() >> 4) & 0x0f;
-    int lsn = accumulator.get() & 0x0f;
-    if ((lsn > 9) || statusBits.isAuxCarry()) {
-      lsn += 6;
-      statusBits.setAuxCarry();
-      lsn &= 0x0f;
+    final int value = registers[REG_A];
+    int correction = 0;
+    boolean carry = statusBits.isCarry();
+    if (((value & 0x0f) > 9) || statusBits.isAuxCarry()) {
+      correction |= 0x06;
     }
-    if ((msn > 9) || statusBits.isCarry()) {
-      msn += 6;
-      statusBits.setCarry();
-      msn &= 0x0f;
+    if ((value > 0x99) || carry) {
+      correction |= 0x60;
+      carry = true;
     }
-    accumulator.set((msn << 4) | lsn);
-    checkAndSetStatusBits(accumulator);
+    final int result = (value + correction) & 0xff;
+    registers[REG_A] = result;
+    statusBits.assignArithmetic(result, StatusBitRegister.auxCarryAdd(value, correction, result), carry);
   }
 
   //////////////////////////////////////
-  ///// REGISTER PAIR INSTRUCTIONS /////
+  ///// DATA TRANSFER INSTRUCTIONS /////
   //////////////////////////////////////
 
-  private RegisterPair getRegisterPair(final int regPair) {
-    switch (regPair) {
-      case 0:
-        return regPairB;
-      case 1:
-        return regPairD;
-      case 2:
-        return regPairH;
-      case 3:
-        return regPairPSW;
-      default:
-        throw new RuntimeException("Invalid register pair number");
+  /**
+   * MOV (MOVE DATA) - The 8-bit data byte in the source register (or memory
+   * byte) is moved into the destination register (or memory byte). The contents
+   * of the source are unaffected. Both may not be memory; that bit pattern is
+   * HLT.
+   *
+   * Status Bits: Unaffected
+   *
+   * Example: Assume the following instruction is present: 01 111 000. The byte in
+   * register B is moved into the accumulator.
+   */
+  private Operation moveData(final int dst,
+                             final int src) {
+    if (dst == REG_M) {
+      return operand -> ram.write(getHL(), registers[src]);
     }
+    if (src == REG_M) {
+      return operand -> registers[dst] = ram.read(getHL());
+    }
+    return operand -> registers[dst] = registers[src];
+  }
+
+  /**
+   * STAX (STORE ACCUMULATOR) - The accumulator byte is stored in the memory
+   * address formed by the specified register pair (B and C, or D and E).
+   *
+   * Status Bits: Unaffected
+   */
+  private void storeAccumulator(final int address) {
+    ram.write(address, registers[REG_A]);
+  }
+
+  /**
+   * LDAX (LOAD ACCUMULATOR) - The byte at the memory address formed by the
+   * specified register pair (B and C, or D and E) is loaded into the
+   * accumulator.
+   *
+   * Status Bits: Unaffected
+   */
+  private void loadAccumulator(final int address) {
+    registers[REG_A] = ram.read(address);
+  }
+
+  //////////////////////////////////////////////////////////
+  ///// REGISTER OR MEMORY TO ACCUMULATOR INSTRUCTIONS /////
+  //////////////////////////////////////////////////////////
+
+  /**
+   * ADD (ADD REGISTER OR MEMORY TO ACCUMULATOR) - The specified byte is added to
+   * the contents of the accumulator.
+   *
+   * ADC (ADD REGISTER OR MEMORY TO ACCUMULATOR WITH CARRY) - As ADD, but the
+   * Carry Bit is also added to the sum.
+   *
+   * Status Bits Affected: Carry, Sign, Zero, Parity, Aux Carry
+   */
+  private void addToAccumulator(final int value,
+                                final boolean withCarry) {
+    final int a = registers[REG_A];
+    final int sum = a + value + (withCarry && statusBits.isCarry() ? 1 : 0);
+    final int result = sum & 0xff;
+    registers[REG_A] = result;
+    statusBits.assignArithmetic(result, StatusBitRegister.auxCarryAdd(a, value, result), sum > 0xff);
+  }
+
+  /**
+   * SUB (SUBTRACT REGISTER OR MEMORY FROM ACCUMULATOR) - The specified byte is
+   * subtracted from the contents of the accumulator. The Carry Bit is set if
+   * there is no carry out of the high order bit, indicating a borrow.
+   *
+   * SBB (SUBTRACT REGISTER OR MEMORY FROM ACCUMULATOR WITH BORROW) - As SUB, but
+   * the Carry Bit is also subtracted.
+   *
+   * Status Bits Affected: Carry, Sign, Zero, Parity, Aux Carry
+   */
+  private void subtractFromAccumulator(final int value,
+                                       final boolean withBorrow) {
+    registers[REG_A] = subtract(value, withBorrow);
+  }
+
+  /**
+   * ANA (LOGICAL AND REGISTER OR MEMORY WITH ACCUMULATOR) - The specified byte
+   * is logically ANDed bit by bit with the contents of the accumulator. The
+   * Carry Bit is reset to zero.
+   *
+   * Status Bits Affected: Carry, Sign, Zero, Parity, Aux Carry
+   */
+  private void andWithAccumulator(final int value) {
+    final int a = registers[REG_A];
+    final int result = a & value;
+    registers[REG_A] = result;
+    statusBits.assignArithmetic(result, StatusBitRegister.auxCarryAnd(a, value), false);
+  }
+
+  /**
+   * XRA (LOGICAL EXCLUSIVE-OR REGISTER OR MEMORY WITH ACCUMULATOR) - The
+   * specified byte is EXCLUSIVE-ORed bit by bit with the contents of the
+   * accumulator. The Carry Bit is reset to zero.
+   *
+   * Status Bits Affected: Carry, Sign, Zero, Parity, Aux Carry
+   */
+  private void exclusiveOrWithAccumulator(final int value) {
+    final int result = registers[REG_A] ^ value;
+    registers[REG_A] = result;
+    statusBits.assignArithmetic(result, 0, false);
+  }
+
+  /**
+   * ORA (LOGICAL OR REGISTER OR MEMORY WITH ACCUMULATOR) - The specified byte is
+   * logically ORed bit by bit with the contents of the accumulator. The Carry Bit
+   * is reset to zero.
+   *
+   * Status Bits Affected: Carry, Sign, Zero, Parity, Aux Carry
+   */
+  private void orWithAccumulator(final int value) {
+    final int result = registers[REG_A] | value;
+    registers[REG_A] = result;
+    statusBits.assignArithmetic(result, 0, false);
+  }
+
+  /**
+   * CMP (COMPARE REGISTER OR MEMORY WITH ACCUMULATOR) - The specified byte is
+   * compared to the contents of the accumulator by subtracting it from the
+   * accumulator. The accumulator is unaffected; the status bits are set by the
+   * result of the subtraction. The Zero Bit indicates equality and the Carry Bit
+   * that the byte is greater than the accumulator.
+   *
+   * Status Bits Affected: Carry, Sign, Zero, Parity, Aux Carry
+   */
+  private void compareWithAccumulator(final int value) {
+    subtract(value, false);
+  }
+
+  private int subtract(final int value,
+                       final boolean withBorrow) {
+    final int a = registers[REG_A];
+    final int difference = a - value - (withBorrow && statusBits.isCarry() ? 1 : 0);
+    final int result = difference & 0xff;
+    statusBits.assignArithmetic(result, StatusBitRegister.auxCarrySubtract(a, value, result), difference < 0);
+    return result;
   }
 
+  //////////////////////////////////////
+  ///// REGISTER PAIR INSTRUCTIONS /////
+  //////////////////////////////////////
+
   /**
    * PUSH (PUSH DATA ONTO STACK) - The contents of the specified register pair
    * (rp) are stored in the two bytes of memory at an address indicated by the
@@ -392,8 +777,8 @@ public class CPU {
    *
    * Status Bits: Unaffected
    */
-  private void pushDataOntoStack(final int regPair) {
-    stackPush(getRegisterPair(regPair));
+  private void pushDataOntoStack(final int value) {
+    stackPush(value);
   }
 
   /**
@@ -413,8 +798,8 @@ public class CPU {
    *
    * Status Bits Affected: None unless register pair PSW is specified.
    */
-  private void popDataOffStack(final int regPair) {
-    stackPop(getRegisterPair(regPair));
+  private int popDataOffStack() {
+    return stackPop();
   }
 
   /**
@@ -424,11 +809,10 @@ public class CPU {
    *
    * Status Bits Affected: Carry
    */
-  private void doubleAdd(final int regPair) {
-    int result = getRegisterPair(regPair).get() + regPairH.get();
+  private void doubleAdd(final int value) {
+    final int result = value + getPair(PAIR_H);
     statusBits.assignCarry(result > 0xffff);
-    result &= 0xffff;
-    regPairH.set(result);
+    setPair(PAIR_H, result);
   }
 
   /**
@@ -437,8 +821,8 @@ public class CPU {
    *
    * Status Bits: Unaffected
    */
-  private void incrementRegisterPair(final int regPair) {
-    increment(getRegisterPair(regPair));
+  private int incrementRegisterPair(final int value) {
+    return (value + 1) & 0xffff;
   }
 
   /**
@@ -447,8 +831,8 @@ public class CPU {
    *
    * Status Bits: Unaffected
    */
-  private void decrementRegisterPair(final int regPair) {
-    decrement(getRegisterPair(regPair));
+  private int decrementRegisterPair(final int value) {
+    return (value - 1) & 0xffff;
   }
 
   /**
@@ -459,9 +843,9 @@ public class CPU {
    * Status Bits: Unaffected
    */
   private void exchangeRegisters() {
-    final int temp = regPairH.get();
-    regPairH.set(regPairD.get());
-    regPairD.set(temp);
+    final int temp = getPair(PAIR_H);
+    setPair(PAIR_H, getPair(PAIR_D));
+    setPair(PAIR_D, temp);
   }
 
   /**
@@ -473,15 +857,14 @@ public class CPU {
    * Status Bits: Unaffected
    */
   private void exchangeStack() {
-    int temp = regL.get();
-    Register memByte = ram.address(stackPointer);
-    regL.set(memByte.get());
-    memByte.set(temp);
+    final int address = stackPointer;
+    int temp = registers[REG_L];
+    registers[REG_L] = ram.read(address);
+    ram.write(address, temp);
 
-    temp = regH.get();
-    memByte = ram.address(stackPointer, 1);
-    regH.set(memByte.get());
-    memByte.set(temp);
+    temp = registers[REG_H];
+    registers[REG_H] = ram.read(address + 1);
+    ram.write(address + 1, temp);
   }
 
   /**
@@ -492,7 +875,7 @@ public class CPU {
    * Status Bits: Unaffected
    */
   private void loadSPFromHAndL() {
-    stackPointer.set(regPairH.get());
+    stackPointer = getPair(PAIR_H);
   }
 
   ///////////////////////////////////////////
@@ -507,14 +890,14 @@ public class CPU {
    * Status Bits Affected: Carry
    */
   private void rotateAccumulatorLeft() {
-    int data = accumulator.get() << 1;
+    int data = registers[REG_A] << 1;
     final boolean setCarry = (data & 0x100) > 0;
     if (setCarry) {
       data |= 0x01;
       data &= 0xff;
     }
     statusBits.assignCarry(setCarry);
-    accumulator.set(data);
+    registers[REG_A] = data;
   }
 
   /**
@@ -525,14 +908,14 @@ public class CPU {
    * Status Bits Affected: Carry
    */
   private void rotateAccumulatorRight() {
-    int data = accumulator.get();
+    int data = registers[REG_A];
     final boolean setCarry = (data & 0x01) > 0;
     data = data >> 1;
     if (setCarry) {
       data |= 0x80;
     }
     statusBits.assignCarry(setCarry);
-    accumulator.set(data);
+    registers[REG_A] = data;
   }
 
   /**
@@ -543,14 +926,14 @@ public class CPU {
    * Status Bits Affected: Carry
    */
   private void rotateAccumulatorLeftThroughCarry() {
-    int data = accumulator.get() << 1;
+    int data = registers[REG_A] << 1;
     final boolean isCarry = statusBits.isCarry();
     final boolean setCarry = (data & 0x100) > 0;
     if (isCarry) {
       data |= 0x01;
     }
     statusBits.assignCarry(setCarry);
-    accumulator.set(data & 0xff);
+    registers[REG_A] = data & 0xff;
   }
 
   /**
@@ -561,7 +944,7 @@ public class CPU {
    * Status Bits Affected: Carry
    */
   private void rotateAccumulatorRightThroughCarry() {
-    int data = accumulator.get();
+    int data = registers[REG_A];
     final boolean isCarry = statusBits.isCarry();
     final boolean setCarry = (data & 0x01) > 0;
     data = data >> 1;
@@ -569,133 +952,1224 @@ public class CPU {
       data |= 0x80;
     }
     statusBits.assignCarry(setCarry);
-    accumulator.set(data);
+    registers[REG_A] = data;
   }
 
-  private void executeInstruction() {
-    instructionRegister.set(ram.get(programCounter));
-    final int instruction = instructionRegister.get();
-    switch (instruction) {
-      case 0333:
-        input();
-        break;
-      case 0323:
-        output();
-        break;
-      case 0373:
-        enableInterrupts();
-        break;
-      case 0363:
-        disableInterrupts();
-        break;
-      case 0166:
-        haltInstruction();
-        break;
-      case 0307:
-      case 0317:
-      case 0327:
-      case 0337:
-      case 0347:
-      case 0357:
-      case 0367:
-      case 0377:
-        restartInstruction(get3BitParam(instruction));
-        break;
-      case 0077:
-        complementCarry();
-        break;
-      case 0067:
-        setCarry();
-        break;
-      case 0000:
-        noOperation();
-        break;
-      case 0004:
-      case 0014:
-      case 0024:
-      case 0034:
-      case 0044:
-      case 0054:
-      case 0064:
-      case 0074:
-        incrementRegisterOrMemory(get3BitParam(instruction));
-        break;
-      case 0005:
-      case 0015:
-      case 0025:
-      case 0035:
-      case 0045:
-      case 0055:
-      case 0065:
-      case 0075:
-        decrementRegisterOrMemory(get3BitParam(instruction));
-        break;
-      case 0057:
-        complementAccumulator();
-        break;
-      case 0047:
-        decimalAdjustAccumulator();
-        break;
-      case 0305:
-      case 0325:
-      case 0345:
-      case 0365:
-        pushDataOntoStack(get2BitParam(instruction));
-        break;
-      case 0301:
-      case 0321:
-      case 0341:
-      case 0361:
-        popDataOffStack(get2BitParam(instruction));
-        break;
-      case 0011:
-      case 0031:
-      case 0051:
-      case 0071:
-        doubleAdd(get2BitParam(instruction));
-        break;
-      case 0003:
-      case 0023:
-      case 0043:
-      case 0063:
-        incrementRegisterPair(get2BitParam(instruction));
-        break;
-      case 0013:
-      case 0033:
-      case 0053:
-      case 0073:
-        decrementRegisterPair(get2BitParam(instruction));
-        break;
-      case 0353:
-        exchangeRegisters();
-        break;
-      case 0343:
-        exchangeStack();
-        break;
-      case 0371:
-        loadSPFromHAndL();
-        break;
-      case 0007:
-        rotateAccumulatorLeft();
-        break;
-      case 0017:
-        rotateAccumulatorRight();
-        break;
-      case 0027:
-        rotateAccumulatorLeftThroughCarry();
-        break;
-      case 0037:
-        rotateAccumulatorRightThroughCarry();
-        break;
+  //////////////////////////////////
+  ///// IMMEDIATE INSTRUCTIONS /////
+  //////////////////////////////////
+
+  /**
+   * LXI (LOAD REGISTER PAIR IMMEDIATE) - The two bytes following the
+   * instruction are loaded into the specified register pair: the second byte of
+   * the instruction into the second register of the pair and the third byte
+   * into the first.
+   *
+   * Status Bits: Unaffected
+   */
+  private Operation loadRegisterPairImmediate(final int rp) {
+    if (rp == PAIR_SP) {
+      return operand -> stackPointer = operand;
     }
-    increment(programCounter);
+    return operand -> setPair(rp, operand);
   }
 
-  private int get3BitParam(final int num) {
-    return (num & 0070) >> 3;
+  /**
+   * MVI (MOVE IMMEDIATE DATA) - The byte following the instruction is moved into
+   * the specified register or memory byte.
+   *
+   * Status Bits: Unaffected
+   */
+  private Operation moveImmediateData(final int reg) {
+    if (reg == REG_M) {
+      return operand -> ram.write(getHL(), operand);
+    }
+    return operand -> registers[reg] = operand;
+  }
+
+  /*
+   * ADI, ACI, SUI, SBI, ANI, XRI, ORI and CPI operate on the byte following the
+   * instruction exactly as ADD, ADC, SUB, SBB, ANA, XRA, ORA and CMP operate on
+   * a register, and share their implementations.
+   */
+
+  //////////////////////////////////////////
+  ///// DIRECT ADDRESSING INSTRUCTIONS /////
+  //////////////////////////////////////////
+
+  /**
+   * STA (STORE ACCUMULATOR DIRECT) - The accumulator byte is stored in the
+   * memory address given by the two bytes following the instruction.
+   *
+   * Status Bits: Unaffected
+   */
+  private void storeAccumulatorDirect(final int address) {
+    ram.write(address, registers[REG_A]);
+  }
+
+  /**
+   * LDA (LOAD ACCUMULATOR DIRECT) - The byte at the memory address given by the
+   * two bytes following the instruction is loaded into the accumulator.
+   *
+   * Status Bits: Unaffected
+   */
+  private void loadAccumulatorDirect(final int address) {
+    registers[REG_A] = ram.read(address);
+  }
+
+  /**
+   * SHLD (STORE H AND L DIRECT) - The byte in the L register is stored at the
+   * memory address given by the two bytes following the instruction, and the
+   * byte in the H register at the next higher address.
+   *
+   * Status Bits: Unaffected
+   */
+  private void storeHAndLDirect(final int address) {
+    ram.write(address, registers[REG_L]);
+    ram.write(address + 1, registers[REG_H]);
+  }
+
+  /**
+   * LHLD (LOAD H AND L DIRECT) - The byte at the memory address given by the two
+   * bytes following the instruction is loaded into the L register, and the byte
+   * at the next higher address into the H register.
+   *
+   * Status Bits: Unaffected
+   */
+  private void loadHAndLDirect(final int address) {
+    registers[REG_L] = ram.read(address);
+    registers[REG_H] = ram.read(address + 1);
   }
 
-  private int get2BitParam(final int num) {
-    return (num & 0060) >> 4;
+  /////////////////////////////
+  ///// JUMP INSTRUCTIONS /////
+  /////////////////////////////
+
+  /**
+   * PCHL (LOAD PROGRAM COUNTER) - The contents of the H and L registers are
+   * copied into the Program Counter, so the next instruction is fetched from the
+   * address in H and L.
+   *
+   * Status Bits: Unaffected
+   */
+  private void loadProgramCounter() {
+    programCounter = getHL();
+  }
+
+  /**
+   * JMP (JUMP) - Program execution continues at the memory address given by the
+   * two bytes following the instruction.
+   *
+   * Jcc (CONDITIONAL JUMP) - JNZ, JZ, JNC, JC, JPO, JPE, JP and JM jump as JMP
+   * if the condition holds, and otherwise continue with the next instruction.
+   *
+   * Status Bits: Unaffected
+   */
+  private void jump(final int address) {
+    programCounter = address;
+  }
+
+  /////////////////////////////
+  ///// CALL INSTRUCTIONS /////
+  /////////////////////////////
+
+  /**
+   * CALL (CALL) - The address of the next instruction is pushed onto the stack,
+   * and program execution continues at the memory address given by the two
+   * bytes following the instruction.
+   *
+   * Ccc (CONDITIONAL CALL) - CNZ, CZ, CNC, CC, CPO, CPE, CP and CM call as CALL
+   * if the condition holds, taking six more cycles than when it does not.
+   *
+   * Status Bits: Unaffected
+   */
+  private void call(final int address) {
+    stackPush(programCounter);
+    programCounter = address;
+  }
+
+  private void callIf(final boolean condition,
+                      final int address) {
+    if (condition) {
+      cycles += BRANCH_TAKEN_CYCLES;
+      call(address);
+    }
+  }
+
+  ///////////////////////////////
+  ///// RETURN INSTRUCTIONS /////
+  ///////////////////////////////
+
+  /**
+   * RET (RETURN) - The address on top of the stack is popped into the Program
+   * Counter, returning from a subroutine entered by CALL or RST.
+   *
+   * Rcc (CONDITIONAL RETURN) - RNZ, RZ, RNC, RC, RPO, RPE, RP and RM return as
+   * RET if the condition holds, taking six more cycles than when it does not.
+   *
+   * Status Bits: Unaffected
+   */
+  private void returnFromSubroutine() {
+    programCounter = stackPop();
+  }
+
+  private void returnIf(final boolean condition) {
+    if (condition) {
+      cycles += BRANCH_TAKEN_CYCLES;
+      returnFromSubroutine();
+    }
+  }
+
+  //////////////////////////////
+  ///// INSTRUCTION DECODE /////
+  //////////////////////////////
+
+  /**
+   * Builds the dispatch table, one handler per opcode. Operand fields encoded
+   * in the opcode are decoded here, once, and bound into the handler so that
+   * executing an instruction is a single table lookup. Opcodes the 8080 leaves
+   * undocumented behave as the documented instruction they alias.
+   */
+  private Operation[] buildOperationTable() {
+    final Operation[] table = new Operation[256];
+    Arrays.fill(table, (Operation) operand -> noOperation());
+
+    table[0333] = this::input;
+    table[0323] = this::output;
+    table[0373] = operand -> enableInterrupts();
+    table[0363] = operand -> disableInterrupts();
+    table[0166] = operand -> haltInstruction();
+    table[0077] = operand -> complementCarry();
+    table[0067] = operand -> setCarry();
+
+    for (int reg = REG_B; reg <= REG_A; reg++) {
+      final int r = reg;
+      final int increment = 0004 | (reg << 3);
+      final int decrement = 0005 | (reg << 3);
+      if (reg == REG_M) {
+        table[increment] = operand -> {
+          final int address = getHL();
+          ram.write(address, incrementRegisterOrMemory(ram.read(address)));
+        };
+        table[decrement] = operand -> {
+          final int address = getHL();
+          ram.write(address, decrementRegisterOrMemory(ram.read(address)));
+        };
+      } else {
+        table[increment] = operand -> registers[r] = incrementRegisterOrMemory(registers[r]);
+        table[decrement] = operand -> registers[r] = decrementRegisterOrMemory(registers[r]);
+      }
+      table[0006 | (reg << 3)] = moveImmediateData(reg);
+    }
+    table[0057] = operand -> complementAccumulator();
+    table[0047] = operand -> decimalAdjustAccumulator();
+
+    for (int dst = REG_B; dst <= REG_A; dst++) {
+      for (int src = REG_B; src <= REG_A; src++) {
+        if ((dst != REG_M) || (src != REG_M)) {
+          table[0100 | (dst << 3) | src] = moveData(dst, src);
+        }
+      }
+    }
+    table[0002] = operand -> storeAccumulator(getPair(PAIR_B));
+    table[0022] = operand -> storeAccumulator(getPair(PAIR_D));
+    table[0012] = operand -> loadAccumulator(getPair(PAIR_B));
+    table[0032] = operand -> loadAccumulator(getPair(PAIR_D));
+
+    for (int reg = REG_B; reg <= REG_A; reg++) {
+      final int r = reg;
+      if (reg == REG_M) {
+        table[0206] = operand -> addToAccumulator(ram.read(getHL()), false);
+        table[0216] = operand -> addToAccumulator(ram.read(getHL()), true);
+        table[0226] = operand -> subtractFromAccumulator(ram.read(getHL()), false);
+        table[0236] = operand -> subtractFromAccumulator(ram.read(getHL()), true);
+        table[0246] = operand -> andWithAccumulator(ram.read(getHL()));
+        table[0256] = operand -> exclusiveOrWithAccumulator(ram.read(getHL()));
+        table[0266] = operand -> orWithAccumulator(ram.read(getHL()));
+        table[0276] = operand -> compareWithAccumulator(ram.read(getHL()));
+      } else {
+        table[0200 | reg] = operand -> addToAccumulator(registers[r], false);
+        table[0210 | reg] = operand -> addToAccumulator(registers[r], true);
+        table[0220 | reg] = operand -> subtractFromAccumulator(registers[r], false);
+        table[0230 | reg] = operand -> subtractFromAccumulator(registers[r], true);
+        table[0240 | reg] = operand -> andWithAccumulator(registers[r]);
+        table[0250 | reg] = operand -> exclusiveOrWithAccumulator(registers[r]);
+        table[0260 | reg] = operand -> orWithAccumulator(registers[r]);
+        table[0270 | reg] = operand -> compareWithAccumulator(registers[r]);
+      }
+    }
+
+    for (int rp = PAIR_B; rp < PAIR_SP; rp++) {
+      final int pair = rp;
+      table[0305 | (rp << 4)] = operand -> pushDataOntoStack(getPair(pair));
+      table[0301 | (rp << 4)] = operand -> setPair(pair, popDataOffStack());
+      table[0011 | (rp << 4)] = operand -> doubleAdd(getPair(pair));
+      table[0003 | (rp << 4)] = operand -> setPair(pair, incrementRegisterPair(getPair(pair)));
+      table[0013 | (rp << 4)] = operand -> setPair(pair, decrementRegisterPair(getPair(pair)));
+    }
+    table[0365] = operand -> pushDataOntoStack(getPSW());
+    table[0361] = operand -> setPSW(popDataOffStack());
+    table[0071] = operand -> doubleAdd(stackPointer);
+    table[0063] = operand -> stackPointer = incrementRegisterPair(stackPointer);
+    table[0073] = operand -> stackPointer = decrementRegisterPair(stackPointer);
+    table[0353] = operand -> exchangeRegisters();
+    table[0343] = operand -> exchangeStack();
+    table[0371] = operand -> loadSPFromHAndL();
+
+    table[0007] = operand -> rotateAccumulatorLeft();
+    table[0017] = operand -> rotateAccumulatorRight();
+    table[0027] = operand -> rotateAccumulatorLeftThroughCarry();
+    table[0037] = operand -> rotateAccumulatorRightThroughCarry();
+
+    for (int rp = PAIR_B; rp <= PAIR_SP; rp++) {
+      table[0001 | (rp << 4)] = loadRegisterPairImmediate(rp);
+    }
+    table[0306] = operand -> addToAccumulator(operand, false);
+    table[0316] = operand -> addToAccumulator(operand, true);
+    table[0326] = operand -> subtractFromAccumulator(operand, false);
+    table[0336] = operand -> subtractFromAccumulator(operand, true);
+    table[0346] = this::andWithAccumulator;
+    table[0356] = this::exclusiveOrWithAccumulator;
+    table[0366] = this::orWithAccumulator;
+    table[0376] = this::compareWithAccumulator;
+
+    table[0062] = this::storeAccumulatorDirect;
+    table[0072] = this::loadAccumulatorDirect;
+    table[0042] = this::storeHAndLDirect;
+    table[0052] = this::loadHAndLDirect;
+
+    table[0351] = operand -> loadProgramCounter();
+    table[0303] = this::jump;
+    table[0313] = this::jump;
+    table[0315] = this::call;
+    table[0335] = this::call;
+    table[0355] = this::call;
+    table[0375] = this::call;
+    table[0311] = operand -> returnFromSubroutine();
+    table[0331] = operand -> returnFromSubroutine();
+    for (int ccc = 0; ccc < 8; ccc++) {
+      final int c = ccc;
+      table[0302 | (ccc << 3)] = operand -> {
+        if (condition(c)) {
+          jump(operand);
+        }
+      };
+      table[0304 | (ccc << 3)] = operand -> callIf(condition(c), operand);
+      table[0300 | (ccc << 3)] = operand -> returnIf(condition(c));
+    }
+
+    for (int exp = 0; exp < 8; exp++) {
+      final int opcode = 0307 | (exp << 3);
+      final int param = get3BitParam(opcode);
+      table[opcode] = operand -> restartInstruction(param);
+    }
+    return table;
+  }
+
+  /**
+   * Fetches, decodes and executes the instruction at the Program Counter, which
+   * is left addressing the next instruction.
+   */
+  private void executeInstruction() {
+    final int pc = programCounter;
+    final int opcode = ram.read(pc);
+    instructionRegister = opcode;
+    final int operand;
+    switch (LENGTHS[opcode]) {
+      case 1:
+        operand = 0;
+        break;
+      case 2:
+        operand = ram.read(pc + 1);
+        break;
+      default:
+        operand = ram.read(pc + 1) | (ram.read(pc + 2) << 8);
+        break;
+    }
+    programCounter = (pc + LENGTHS[opcode]) & 0xffff;
+    cycles += CYCLES[opcode];
+    instructions++;
+    operations[opcode].execute(operand);
+  }
+
+  /**
+   * RESET - Clears the Program Counter, the interrupt flip-flop and any halt,
+   * as the RESET line does. Registers, flags and memory are unchanged.
+   */
+  public void reset() {
+    programCounter = 0;
+    instructionRegister = 0;
+    interruptsEnabled = false;
+    wake();
+  }
+
+  /**
+   * Executes a single instruction, after accepting a pending interrupt if there
+   * is one. Does nothing while the CPU is halted.
+   *
+   * @return the number of clock cycles taken
+   */
+  public int step() {
+    flightRecorder = FlightRecorder.isInitialized();
+    updatePanelAccumulator();
+    final long start = cycles;
+    checkInstrumentedInterrupts();
+    if (!halted) {
+      executeInstrumentedInstruction();
+      debugger.stepped();
+    }
+    endIoBurst();
+    return (int) (cycles - start);
+  }
+
+  /**
+   * Loads the JFR event classes now if JFR is in use, so that a caller timing
+   * the slices can pay for it before it starts the clock rather than in the
+   * first slice. Without JFR it does nothing.
+   */
+  static void prepareFlightRecorder() {
+    if (FlightRecorder.isInitialized()) {
+      SliceEvent.PROBE.isEnabled();
+      HaltEvent.PROBE.isEnabled();
+      InterruptEvent.PROBE.isEnabled();
+      IoBurstEvent.PROBE.isEnabled();
+    }
+  }
+
+  /**
+   * Executes instructions until at least the given number of clock cycles have
+   * elapsed, or the CPU halts or its debugger stops it. An instruction is never
+   * split, so the slice may overrun the budget by up to one instruction's
+   * cycles. A CPU the debugger has stopped runs nothing until it is resumed.
+   *
+   * @param cycleBudget clock cycles to run for
+   * @return the number of clock cycles actually executed
+   */
+  public long run(final long cycleBudget) {
+    flightRecorder = FlightRecorder.isInitialized();
+    if (!flightRecorder || !SliceEvent.PROBE.isEnabled()) {
+      final long ran = runSlice(cycleBudget);
+      endIoBurst();
+      return ran;
+    }
+    final SliceEvent event = new SliceEvent();
+    final long start = instructions;
+    event.begin();
+    final long ran = runSlice(cycleBudget);
+    endIoBurst();
+    event.end();
+    if (event.shouldCommit()) {
+      event.machine = id;
+      event.cycles = ran;
+      event.instructions = instructions - start;
+      event.halted = halted;
+      event.commit();
+    }
+    return ran;
+  }
+
+  private long runSlice(final long cycleBudget) {
+    updatePanelAccumulator();
+    if (debugger.isStopped()) {
+      return 0;
+    }
+    final long start = cycles;
+    final long end = start + cycleBudget;
+    if (debugger.isActive()) {
+      runDebug(end);
+      return cycles - start;
+    }
+    if (instrumented) {
+      if ((profiler == null) && (panelAccumulator == null)) {
+        if (decodedOperations != null) {
+          runDecodedTraced(end);
+        } else {
+          runTraced(end);
+        }
+        return cycles - start;
+      }
+      runInstrumented(end);
+      return cycles - start;
+    }
+    if (translator != null) {
+      if (translator.isAvailable()) {
+        runTranslated(end);
+        return cycles - start;
+      }
+      // The JVM refused a block; interpret from here on without the lookups
+      // or the code listener
+      setTranslationEnabled(false);
+    }
+    if (decodedOperations != null) {
+      runDecoded(end);
+      return cycles - start;
+    }
+    while (cycles < end) {
+      checkInterrupts();
+      if (halted) {
+        break;
+      }
+      executeInstruction();
+    }
+    return cycles - start;
+  }
+
+  /**
+   * The run loop while breakpoints or watchpoints are set. Stops before an
+   * instruction at a breakpoint, other than the one just resumed from, and
+   * after an instruction that touched a watched address.
+   */
+  private void runDebug(final long end) {
+    while (cycles < end) {
+      checkInstrumentedInterrupts();
+      if (halted) {
+        break;
+      }
+      if (debugger.breaksAt(programCounter)) {
+        debugger.stop(Debugger.Stop.BREAKPOINT, programCounter);
+        break;
+      }
+      if (debugger.hasReadWatchpoints()) {
+        checkReadWatchpoints();
+      }
+      executeInstrumentedInstruction();
+      if (debugger.isStopped()) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * The run loop while a tracer or profiler is attached. Every instruction goes
+   * through {@link #executeInstrumentedInstruction()}, so that each one is seen.
+   */
+  private void runInstrumented(final long end) {
+    while (cycles < end) {
+      checkInstrumentedInterrupts();
+      if (halted) {
+        break;
+      }
+      executeInstrumentedInstruction();
+    }
+  }
+
+  /**
+   * The run loop while a tracer is the only instrument attached. It records
+   * each instruction from the fetch it is about to execute, so that tracing
+   * costs a store of two longs per instruction and nothing else. Kept apart
+   * from {@link #runInstrumented(long)} so that the tracer inlines into it.
+   */
+  private void runTraced(final long end) {
+    final Tracer trace = tracer;
+    while (cycles < end) {
+      checkInterrupts();
+      if (halted) {
+        break;
+      }
+      final int pc = programCounter;
+      final int opcode = ram.read(pc);
+      final int length = LENGTHS[opcode];
+      final int operand;
+      switch (length) {
+        case 1:
+          operand = 0;
+          break;
+        case 2:
+          operand = ram.read(pc + 1);
+          break;
+        default:
+          operand = ram.read(pc + 1) | (ram.read(pc + 2) << 8);
+          break;
+      }
+      final int[] r = registers;
+      trace.record(cycles,
+                   pc,
+                   opcode,
+                   operand,
+                   r[REG_A],
+                   statusBits.get(),
+                   (r[REG_B] << 8) | r[REG_C],
+                   (r[REG_D] << 8) | r[REG_E],
+                   (r[REG_H] << 8) | r[REG_L],
+                   stackPointer);
+      instructionRegister = opcode;
+      programCounter = (pc + length) & 0xffff;
+      cycles += CYCLES[opcode];
+      instructions++;
+      operations[opcode].execute(operand);
+    }
+  }
+
+  /**
+   * {@link #runTraced(long)}, taking the opcode and operand from the decode
+   * cache.
+   */
+  private void runDecodedTraced(final long end) {
+    final Tracer trace = tracer;
+    while (cycles < end) {
+      checkInterrupts();
+      if (halted) {
+        break;
+      }
+      final int pc = programCounter;
+      Operation operation = decodedOperations[pc];
+      if (operation == null) {
+        operation = decode(pc);
+      }
+      final int word = decodedWords[pc];
+      final int[] r = registers;
+      trace.record(cycles,
+                   pc,
+                   (word >>> 16) & 0xff,
+                   word & 0xffff,
+                   r[REG_A],
+                   statusBits.get(),
+                   (r[REG_B] << 8) | r[REG_C],
+                   (r[REG_D] << 8) | r[REG_E],
+                   (r[REG_H] << 8) | r[REG_L],
+                   stackPointer);
+      instructionRegister = (word >>> 16) & 0xff;
+      programCounter = (pc + ((word >>> 24) & 0x03)) & 0xffff;
+      cycles += word >>> 26;
+      instructions++;
+      operation.execute(word & 0xffff);
+    }
+  }
+
+  /**
+   * {@link #checkInterrupts()}, with an accepted interrupt counted by the
+   * profiler.
+   */
+  private void checkInstrumentedInterrupts() {
+    final long start = cycles;
+    checkInterrupts();
+    if (cycles != start) {
+      if (profiler != null) {
+        profiler.interrupted(programCounter, (int) (cycles - start));
+      }
+      if (panelAccumulator != null) {
+        panelAccumulator.interrupted((int) (cycles - start));
+      }
+    }
+  }
+
+  /**
+   * {@link #executeInstruction()}, with the instruction recorded to the tracer
+   * first, sharing the fetch of the opcode and operand bytes, and counted by
+   * the profiler after. Either may be absent. The tracer is given the
+   * registers straight from their fields, as this runs for every instruction.
+   */
+  private void executeInstrumentedInstruction() {
+    final int pc = programCounter;
+    final int opcode = ram.read(pc);
+    final int length = LENGTHS[opcode];
+    final int operand;
+    switch (length) {
+      case 1:
+        operand = 0;
+        break;
+      case 2:
+        operand = ram.read(pc + 1);
+        break;
+      default:
+        operand = ram.read(pc + 1) | (ram.read(pc + 2) << 8);
+        break;
+    }
+    final int sp = stackPointer;
+    final long start = cycles;
+    if (tracer != null) {
+      final int[] r = registers;
+      tracer.record(start,
+                    pc,
+                    opcode,
+                    operand,
+                    r[REG_A],
+                    statusBits.get(),
+                    (r[REG_B] << 8) | r[REG_C],
+                    (r[REG_D] << 8) | r[REG_E],
+                    (r[REG_H] << 8) | r[REG_L],
+                    sp);
+    }
+    instructionRegister = opcode;
+    programCounter = (pc + length) & 0xffff;
+    cycles += CYCLES[opcode];
+    instructions++;
+    operations[opcode].execute(operand);
+    if (profiler != null) {
+      profiler.executed(pc, opcode, (int) (cycles - start), sp, stackPointer, programCounter);
+    }
+    if (panelAccumulator != null) {
+      panelAccumulator.executed(pc, opcode, (int) (cycles - start));
+    }
+  }
+
+  /**
+   * Attaches a tracer that records every instruction executed from now on, or
+   * detaches it if null. While attached, the translator is bypassed; the decode
+   * cache, if enabled, still serves the fetch. The tracer is not closed on
+   * detaching.
+   */
+  public void setTracer(final Tracer tracer) {
+    this.tracer = tracer;
+    updateInstrumented();
+  }
+
+  public Tracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * Attaches a profiler that counts every instruction executed from now on, or
+   * detaches it if null. While attached, the decode cache and translator are
+   * bypassed.
+   */
+  public void setProfiler(final Profiler profiler) {
+    this.profiler = profiler;
+    updateInstrumented();
+  }
+
+  public Profiler getProfiler() {
+    return profiler;
+  }
+
+  /**
+   * Attaches a {@link FrontPanel} showing light intensity, which the CPU starts
+   * accumulating into at its next slice. Safe to call from any thread.
+   *
+   * @return false if another panel with intensity is attached
+   */
+  boolean attachPanel(final FrontPanel.Accumulator first) {
+    if (!panelAttached.compareAndSet(false, true)) {
+      return false;
+    }
+    panelDone.set(null);
+    panelNext.set(first);
+    return true;
+  }
+
+  /**
+   * Detaches the panel showing light intensity; the CPU drops its accumulator
+   * at its next slice. Safe to call from any thread.
+   */
+  void detachPanel() {
+    panelNext.set(null);
+    panelDone.set(null);
+    panelAttached.set(false);
+  }
+
+  /**
+   * Hands the CPU the accumulator for the next period, and takes the last one
+   * it finished with, if it has moved on since the previous call. Safe to call
+   * from any thread; the CPU does not touch an accumulator after finishing it.
+   *
+   * @return the finished accumulator, or null if the CPU has not run a slice
+   *         since the previous call
+   */
+  FrontPanel.Accumulator swapPanelAccumulator(final FrontPanel.Accumulator next) {
+    panelNext.set(next);
+    return panelDone.getAndSet(null);
+  }
+
+  /**
+   * @return the accumulator the CPU is counting into, as of its last slice
+   */
+  FrontPanel.Accumulator getPanelAccumulator() {
+    return panelAccumulator;
+  }
+
+  /**
+   * Takes up the accumulator a panel has posted, or drops the current one if
+   * the panel has been detached. Called on the CPU thread at the start of each
+   * slice, so that only that thread changes which loop {@link #run(long)}
+   * takes.
+   */
+  private void updatePanelAccumulator() {
+    if (panelNext.get() != null) {
+      final FrontPanel.Accumulator next = panelNext.getAndSet(null);
+      if (next != null) {
+        if (panelAccumulator != null) {
+          panelDone.set(panelAccumulator);
+        }
+        panelAccumulator = next;
+        updateInstrumented();
+      }
+    } else if ((panelAccumulator != null) && !panelAttached.get()) {
+      panelAccumulator = null;
+      updateInstrumented();
+    }
+  }
+
+  private void updateInstrumented() {
+    instrumented = (tracer != null) || (profiler != null) || (panelAccumulator != null);
+  }
+
+  /**
+   * Checks the data addresses the instruction at the Program Counter is about to
+   * read against the read watchpoints.
+   */
+  private void checkReadWatchpoints() {
+    final int pc = programCounter;
+    final int opcode = ram.read(pc);
+    switch (opcode) {
+      case 0012:
+        checkReadWatchpoint(getPair(PAIR_B));
+        break;
+      case 0032:
+        checkReadWatchpoint(getPair(PAIR_D));
+        break;
+      case 0072:
+        checkReadWatchpoint(ram.read(pc + 1) | (ram.read(pc + 2) << 8));
+        break;
+      case 0052:
+        checkReadWatchpoint(ram.read(pc + 1) | (ram.read(pc + 2) << 8));
+        checkReadWatchpoint((ram.read(pc + 1) | (ram.read(pc + 2) << 8)) + 1);
+        break;
+      case 0064:
+      case 0065:
+        checkReadWatchpoint(getHL());
+        break;
+      case 0301:
+      case 0321:
+      case 0341:
+      case 0361:
+      case 0311:
+      case 0331:
+      case 0343:
+        checkReadWatchpoint(stackPointer);
+        checkReadWatchpoint(stackPointer + 1);
+        break;
+      default:
+        if ((((opcode & 0300) == 0100) && ((opcode & 0007) == REG_M) && (opcode != 0166))
+            || (((opcode & 0300) == 0200) && ((opcode & 0007) == REG_M))) {
+          // MOV r,M and the ALU operations on M
+          checkReadWatchpoint(getHL());
+        } else if (((opcode & 0307) == 0300) && condition(get3BitParam(opcode))) {
+          // Rcc, when it will return
+          checkReadWatchpoint(stackPointer);
+          checkReadWatchpoint(stackPointer + 1);
+        }
+        break;
+    }
+  }
+
+  private void checkReadWatchpoint(final int address) {
+    if (debugger.isReadWatchpoint(address)) {
+      debugger.stop(Debugger.Stop.READ_WATCHPOINT, address);
+    }
+  }
+
+  /**
+   * The run loop with the decoded instruction cache enabled. Each address is
+   * decoded the first time it is executed; after that the handler, operand,
+   * length and cycles come straight from the cache.
+   */
+  private void runDecoded(final long end) {
+    while (cycles < end) {
+      checkInterrupts();
+      if (halted) {
+        break;
+      }
+      final int pc = programCounter;
+      Operation operation = decodedOperations[pc];
+      if (operation == null) {
+        operation = decode(pc);
+      }
+      final int word = decodedWords[pc];
+      instructionRegister = (word >>> 16) & 0xff;
+      programCounter = (pc + ((word >>> 24) & 0x03)) & 0xffff;
+      cycles += word >>> 26;
+      instructions++;
+      operation.execute(word & 0xffff);
+    }
+  }
+
+  /**
+   * Decodes the instruction at the address into the cache, and marks the pages
+   * it occupies so that a write to them drops it again.
+   */
+  private Operation decode(final int pc) {
+    final int opcode = ram.read(pc);
+    final int length = LENGTHS[opcode];
+    final int operand;
+    switch (length) {
+      case 1:
+        operand = 0;
+        break;
+      case 2:
+        operand = ram.read(pc + 1);
+        break;
+      default:
+        operand = ram.read(pc + 1) | (ram.read(pc + 2) << 8);
+        break;
+    }
+    decodedWords[pc] = operand | (opcode << 16) | (length << 24) | (CYCLES[opcode] << 26);
+    decodedOperations[pc] = operations[opcode];
+    ram.markCode(pc >>> 8);
+    ram.markCode((((pc + length) - 1) >>> 8) & 0xff);
+    return operations[opcode];
+  }
+
+  /**
+   * Switches the decoded instruction cache on or off. The cache takes about
+   * 512K per CPU while enabled. Takes effect at the start of the next
+   * {@link #run(long)}, unless translation is enabled, which takes precedence.
+   */
+  public void setDecodeCacheEnabled(final boolean enabled) {
+    if (enabled && (decodedOperations == null)) {
+      decodedOperations = new Operation[Memory.SIZE];
+      decodedWords = new int[Memory.SIZE];
+    } else if (!enabled) {
+      decodedOperations = null;
+      decodedWords = null;
+    }
+    updateCodeListener();
+  }
+
+  public boolean isDecodeCacheEnabled() {
+    return decodedOperations != null;
+  }
+
+  /**
+   * The run loop with translation enabled: executes a translated block where
+   * there is one, and interprets one instruction where there is not.
+   */
+  private void runTranslated(final long end) {
+    while (cycles < end) {
+      checkInterrupts();
+      if (halted) {
+        break;
+      }
+      final CompiledBlock block = translator.lookup(programCounter);
+      if (block == null) {
+        executeInstruction();
+      } else {
+        codeModified = false;
+        block.execute();
+      }
+    }
+  }
+
+  /**
+   * Switches translation of hot code into JVM bytecode on or off. Takes effect
+   * at the start of the next {@link #run(long)}; single steps are always
+   * interpreted. Turning it off discards all translated code.
+   *
+   * If the JVM cannot define the translated classes the CPU discards the
+   * translator and goes on interpreting, with the decode cache if that is
+   * enabled, and {@link #isTranslationEnabled()} returns false.
+   */
+  public void setTranslationEnabled(final boolean enabled) {
+    if (enabled && (translator == null)) {
+      translator = new Translator(this, ram, MethodHandles.lookup(), operations);
+    } else if (!enabled) {
+      translator = null;
+    }
+    updateCodeListener();
+  }
+
+  public boolean isTranslationEnabled() {
+    return (translator != null) && translator.isAvailable();
+  }
+
+  /**
+   * @return the number of blocks translated, or 0 when translation is off
+   */
+  public long getTranslatedBlocks() {
+    return (translator == null) ? 0 : translator.getTranslatedCount();
+  }
+
+  /**
+   * @return the number of translated blocks dropped because their code was
+   *         overwritten, or 0 when translation is off
+   */
+  public long getInvalidatedBlocks() {
+    return (translator == null) ? 0 : translator.getInvalidatedCount();
+  }
+
+  Translator getTranslator() {
+    return translator;
+  }
+
+  /**
+   * Listens for writes to code only while a cache of it is kept.
+   */
+  private void updateCodeListener() {
+    if ((translator == null) && (decodedOperations == null)) {
+      ram.setCodeListener(null);
+      ram.clearCode();
+    } else {
+      ram.setCodeListener(this::codeWritten);
+    }
+  }
+
+  private void codeWritten(final int page) {
+    if (translator != null) {
+      translator.invalidate(page);
+    }
+    if (decodedOperations != null) {
+      // Instructions starting up to two bytes before the page may run into it
+      final int from = (page << 8) - 2;
+      for (int address = from; address < (from + Memory.PAGE_SIZE + 2); address++) {
+        decodedOperations[address & 0xffff] = null;
+      }
+    }
+    codeModified = true;
+  }
+
+  /**
+   * Parks the calling thread while the CPU is halted, until an interrupt it will
+   * accept is requested, the timeout passes or the thread is interrupted. A CPU
+   * halted with interrupts disabled never wakes, as on the real part, and waits
+   * out the full timeout.
+   *
+   * @return true if the CPU can resume
+   */
+  public boolean awaitInterrupt(final long timeoutNanos) {
+    if (!halted) {
+      return true;
+    }
+    if (!interruptsEnabled) {
+      LockSupport.parkNanos(this, timeoutNanos);
+      return false;
+    }
+    return interrupts.await(timeoutNanos);
+  }
+
+  public boolean isHalted() {
+    return halted;
+  }
+
+  public boolean isInterruptsEnabled() {
+    return interruptsEnabled;
+  }
+
+  public InterruptController getInterruptController() {
+    return interrupts;
+  }
+
+  public IoBus getIoBus() {
+    return io;
+  }
+
+  /**
+   * @return a number identifying this CPU among all those created in this JVM
+   */
+  public long getId() {
+    return id;
+  }
+
+  public Debugger getDebugger() {
+    return debugger;
+  }
+
+  /**
+   * @return total clock cycles executed since the CPU was created
+   */
+  public long getCycles() {
+    return cycles;
+  }
+
+  /**
+   * @return total instructions executed since the CPU was created
+   */
+  public long getInstructions() {
+    return instructions;
+  }
+
+  /**
+   * @return interrupts accepted since the CPU was created
+   */
+  public long getInterruptCount() {
+    return interruptCount;
+  }
+
+  /**
+   * @return wall-clock time spent halted since the CPU was created, including
+   *         the current halt
+   */
+  public long getHaltedNanos() {
+    final long total = haltedNanos;
+    return halted ? (total + (System.nanoTime() - haltedSince)) : total;
+  }
+
+  /////////////////
+  ///// STATE /////
+  /////////////////
+
+  /**
+   * Number of bytes written by {@link #saveState(ByteBuffer)}.
+   */
+  static final int STATE_SIZE = 8 + 1 + 2 + 2 + 1 + 1 + 8;
+
+  private static final int STATE_INTE = 0x01;
+  private static final int STATE_HALTED = 0x02;
+
+  /**
+   * Writes the register file, flags, PC, SP, interrupt flip-flop, halt state,
+   * instruction register and cycle count into the buffer.
+   */
+  void saveState(final ByteBuffer out) {
+    for (final int register : registers) {
+      out.put((byte) register);
+    }
+    out.put((byte) statusBits.get());
+    out.putShort((short) programCounter);
+    out.putShort((short) stackPointer);
+    out.put((byte) ((interruptsEnabled ? STATE_INTE : 0) | (halted ? STATE_HALTED : 0)));
+    out.put((byte) instructionRegister);
+    out.putLong(cycles);
+  }
+
+  /**
+   * Reads back the state written by {@link #saveState(ByteBuffer)}.
+   */
+  void restoreState(final ByteBuffer in) {
+    for (int i = 0; i < registers.length; i++) {
+      registers[i] = in.get() & 0xff;
+    }
+    statusBits.set(in.get() & 0xff);
+    programCounter = in.getShort() & 0xffff;
+    stackPointer = in.getShort() & 0xffff;
+    final int state = in.get();
+    interruptsEnabled = (state & STATE_INTE) != 0;
+    wake();
+    if ((state & STATE_HALTED) != 0) {
+      haltInstruction();
+    }
+    instructionRegister = in.get() & 0xff;
+    cycles = in.getLong();
+  }
+
+  private int get3BitParam(final int num) {
+    return (num & 0070) >> 3;
+  }
+
+  //////////////////////
+  ///// INSPECTION /////
+  //////////////////////
+
+  /**
+   * Returns a live view of a single register, selected by its 3-bit opcode
+   * encoding (B, C, D, E, H, L, M, A). M is the memory byte currently addressed
+   * by H and L.
+   */
+  public Register getRegister(final int reg) {
+    if (reg == REG_M) {
+      return ram.address((registers[REG_H] << 8) | registers[REG_L]);
+    }
+    return new RegisterView(reg);
+  }
+
+  /**
+   * Returns a live view of a register pair, selected by its 2-bit opcode
+   * encoding (B, D, H, SP).
+   */
+  public Register getRegisterPair(final int rp) {
+    if (rp == PAIR_SP) {
+      return getStackPointer();
+    }
+    return new RegisterPair(new RegisterView(rp << 1), new RegisterView((rp << 1) + 1));
+  }
+
+  /**
+   * The value of a single register, selected as for
+   * {@link #getRegister(int)}, without allocating a view of it.
+   */
+  public int getRegisterValue(final int reg) {
+    if (reg == REG_M) {
+      return ram.read((registers[REG_H] << 8) | registers[REG_L]);
+    }
+    return registers[reg];
+  }
+
+  /**
+   * The value of a register pair, selected as for
+   * {@link #getRegisterPair(int)}, without allocating a view of it.
+   */
+  public int getRegisterPairValue(final int rp) {
+    if (rp == PAIR_SP) {
+      return stackPointer;
+    }
+    return (registers[rp << 1] << 8) | registers[(rp << 1) + 1];
+  }
+
+  public StatusBitRegister getStatusBits() {
+    return statusBits;
+  }
+
+  public Register getProgramCounter() {
+    return new Register() {
+
+      @Override
+      public int get() {
+        return programCounter;
+      }
+
+      @Override
+      public void set(final int data) {
+        programCounter = data & 0xffff;
+      }
+
+      @Override
+      public int getWidth() {
+        return WORD_BITS;
+      }
+    };
+  }
+
+  /**
+   * The Program Counter's value, for callers that would otherwise allocate a
+   * view of it for each access.
+   */
+  public int getPC() {
+    return programCounter;
+  }
+
+  public void setPC(final int address) {
+    programCounter = address & 0xffff;
+  }
+
+  public Register getStackPointer() {
+    return new Register() {
+
+      @Override
+      public int get() {
+        return stackPointer;
+      }
+
+      @Override
+      public void set(final int data) {
+        stackPointer = data & 0xffff;
+      }
+
+      @Override
+      public int getWidth() {
+        return WORD_BITS;
+      }
+    };
+  }
+
+  private class RegisterView implements Register {
+
+    private final int index;
+
+    RegisterView(final int index) {
+      this.index = index;
+    }
+
+    @Override
+    public int get() {
+      return registers[index];
+    }
+
+    @Override
+    public void set(final int data) {
+      registers[index] = data & 0xff;
+    }
+
+    @Override
+    public int getWidth() {
+      return 8;
+    }
   }
 }
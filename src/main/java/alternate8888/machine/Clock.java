@@ -0,0 +1,231 @@
+package alternate8888.machine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a CPU in slices of emulated time, either as fast as the host allows or
+ * paced to the speed of a real 8080.
+ *
+ * In throttled mode each slice is given a real-time deadline measured from the
+ * moment pacing started, rather than from the end of the previous slice, so the
+ * error of any single sleep is corrected by the next one and does not add up
+ * over a long run. Between slices the thread parks instead of spinning. If the
+ * emulation falls more than {@link #MAX_LAG_NANOS} behind (a long GC pause, a
+ * suspended debugger) the schedule is restarted from the present instead of
+ * running flat out to catch up.
+ *
+ * While its debugger has the CPU stopped the clock waits, and carries on when
+ * the debugger is resumed. The clock takes over the debugger's resume listener
+ * while it runs.
+ *
+ * @author Tabby Cromarty
+ */
+public class Clock implements Runnable {
+
+  /**
+   * Clock rate of the Altair 8800, in Hz.
+   */
+  public static final long ALTAIR_FREQUENCY = 2_000_000;
+
+  /**
+   * Real time covered by a slice.
+   */
+  public static final long DEFAULT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  static final long MAX_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * Where the clock reads the time and waits for it to pass. The system's own
+   * unless a test simulates it.
+   */
+  interface TimeSource {
+
+    long nanoTime();
+
+    void parkNanos(Object blocker,
+                   long nanos);
+  }
+
+  private static final TimeSource SYSTEM_TIME = new TimeSource() {
+
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+
+    @Override
+    public void parkNanos(final Object blocker,
+                          final long nanos) {
+      LockSupport.parkNanos(blocker, nanos);
+    }
+  };
+
+  public enum Mode {
+    /**
+     * Paced to the clock frequency in real time.
+     */
+    THROTTLED,
+    /**
+     * As fast as the host can run it.
+     */
+    UNTHROTTLED
+  }
+
+  private final CPU cpu;
+  private final TimeSource time;
+  private final long frequency;
+  private final long sliceCycles;
+
+  private volatile Mode mode;
+  private volatile boolean running;
+
+  private volatile long startNanos;
+  private volatile long startCycles;
+  private volatile long overruns;
+
+  public Clock(final CPU cpu) {
+    this(cpu, ALTAIR_FREQUENCY, DEFAULT_SLICE_NANOS, Mode.THROTTLED);
+  }
+
+  /**
+   * @param cpu        the CPU to drive
+   * @param frequency  emulated clock rate in Hz, used in throttled mode
+   * @param sliceNanos real time covered by each slice
+   * @param mode       initial mode
+   */
+  public Clock(final CPU cpu,
+               final long frequency,
+               final long sliceNanos,
+               final Mode mode) {
+    this(cpu, frequency, sliceNanos, mode, SYSTEM_TIME);
+  }
+
+  Clock(final CPU cpu,
+        final long frequency,
+        final long sliceNanos,
+        final Mode mode,
+        final TimeSource time) {
+    if ((frequency <= 0) || (sliceNanos <= 0)) {
+      throw new IllegalArgumentException("Frequency and slice length must be positive");
+    }
+    this.cpu = cpu;
+    this.time = time;
+    this.frequency = frequency;
+    this.sliceCycles = Math.max(1, (frequency * sliceNanos) / TimeUnit.SECONDS.toNanos(1));
+    this.mode = mode;
+  }
+
+  /**
+   * Runs the CPU until {@link #stop()} is called or the thread is interrupted.
+   */
+  @Override
+  public void run() {
+    running = true;
+    CPU.prepareFlightRecorder();
+    Mode pacing = mode;
+    long origin = time.nanoTime();
+    long originCycles = cpu.getCycles();
+    startNanos = origin;
+    startCycles = originCycles;
+    final Thread thread = Thread.currentThread();
+    final Debugger debugger = cpu.getDebugger();
+    debugger.setResumeListener(() -> LockSupport.unpark(thread));
+
+    while (running && !thread.isInterrupted()) {
+      cpu.run(sliceCycles);
+
+      if (debugger.isStopped()) {
+        time.parkNanos(this, MAX_LAG_NANOS);
+        origin = time.nanoTime();
+        originCycles = cpu.getCycles();
+        continue;
+      }
+      if (cpu.isHalted()) {
+        if (cpu.awaitInterrupt(MAX_LAG_NANOS)) {
+          origin = time.nanoTime();
+          originCycles = cpu.getCycles();
+        }
+        continue;
+      }
+      if (mode != pacing) {
+        pacing = mode;
+        origin = time.nanoTime();
+        originCycles = cpu.getCycles();
+      }
+      if (pacing == Mode.UNTHROTTLED) {
+        continue;
+      }
+
+      final long deadline = origin + toNanos(cpu.getCycles() - originCycles);
+      final long now = time.nanoTime();
+      if (now < deadline) {
+        time.parkNanos(this, deadline - now);
+      } else {
+        overruns++;
+        if ((now - deadline) > MAX_LAG_NANOS) {
+          origin = now;
+          originCycles = cpu.getCycles();
+        }
+      }
+    }
+    debugger.setResumeListener(null);
+    running = false;
+  }
+
+  /**
+   * Asks the running clock to stop at the end of the current slice. A clock
+   * waiting on a halted or stopped CPU notices within {@link #MAX_LAG_NANOS}.
+   */
+  public void stop() {
+    running = false;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Switches between throttled and unthrottled running. Takes effect at the end
+   * of the current slice.
+   */
+  public void setMode(final Mode mode) {
+    this.mode = mode;
+  }
+
+  public long getFrequency() {
+    return frequency;
+  }
+
+  public long getSliceCycles() {
+    return sliceCycles;
+  }
+
+  /**
+   * @return the number of throttled slices that finished after their real-time
+   *         deadline, leaving no time to sleep
+   */
+  public long getOverruns() {
+    return overruns;
+  }
+
+  /**
+   * @return the clock rate actually achieved since the clock started, in Hz
+   */
+  public double getEffectiveFrequency() {
+    final long elapsed = time.nanoTime() - startNanos;
+    if (elapsed <= 0) {
+      return 0;
+    }
+    return ((cpu.getCycles() - startCycles) * (double) TimeUnit.SECONDS.toNanos(1)) / elapsed;
+  }
+
+  private long toNanos(final long cycles) {
+    final long second = TimeUnit.SECONDS.toNanos(1);
+    return ((cycles / frequency) * second) + (((cycles % frequency) * second) / frequency);
+  }
+}
@@ -0,0 +1,16 @@
+package alternate8888.machine;
+
+/**
+ * A basic block of 8080 code translated into JVM bytecode by the
+ * {@link Translator}, bound to the CPU it was translated for.
+ *
+ * @author Tabby Cromarty
+ */
+interface CompiledBlock {
+
+  /**
+   * Executes the block from its first instruction, leaving the Program Counter
+   * addressing the next instruction to execute and the cycle count advanced.
+   */
+  void execute();
+}
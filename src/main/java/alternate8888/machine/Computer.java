@@ -1,9 +1,161 @@
 package alternate8888.machine;
 
+import java.nio.ByteBuffer;
+
 /**
  * @author Tabby Cromarty
  */
 public class Computer {
 
-  private final Memory ram = new Memory();
+  private static final int ADDRESS_MASK = Memory.SIZE - 1;
+
+  private final Memory ram;
+  private final InterruptController interrupts = new InterruptController();
+  private final IoBus io = new IoBus();
+  private final CPU cpu;
+
+  /**
+   * The sixteen address/data switches of the front panel, A15 in bit 15.
+   */
+  private int switches;
+
+  public Computer() {
+    this(new Memory());
+  }
+
+  private Computer(final Memory ram) {
+    this.ram = ram;
+    this.cpu = new CPU(ram, interrupts, io);
+  }
+
+  /**
+   * Returns a new machine in the same state as this one, sharing this machine's
+   * memory pages copy-on-write (see {@link Memory#fork()}). The CPU state is
+   * copied; the new machine has no devices attached and no pending interrupts.
+   * Must not be called while this machine is running.
+   */
+  public Computer fork() {
+    final Computer copy = new Computer(ram.fork());
+    final ByteBuffer state = ByteBuffer.allocate(CPU.STATE_SIZE);
+    cpu.saveState(state);
+    state.flip();
+    copy.cpu.restoreState(state);
+    return copy;
+  }
+
+  public Memory getMemory() {
+    return ram;
+  }
+
+  public CPU getCPU() {
+    return cpu;
+  }
+
+  public InterruptController getInterruptController() {
+    return interrupts;
+  }
+
+  public IoBus getIoBus() {
+    return io;
+  }
+
+  ////////////////////////////////
+  ///// FRONT PANEL SWITCHES /////
+  ////////////////////////////////
+
+  /**
+   * Sets the address/data switches. The low eight are the data switches used
+   * by DEPOSIT.
+   */
+  public void setSwitches(final int value) {
+    switches = value & ADDRESS_MASK;
+  }
+
+  public int getSwitches() {
+    return switches;
+  }
+
+  /**
+   * EXAMINE - Loads the address switches into the Program Counter.
+   *
+   * @return the byte at that address, as shown on the data lights
+   */
+  public int examine() {
+    cpu.setPC(switches);
+    return ram.read(switches);
+  }
+
+  /**
+   * EXAMINE NEXT - Steps the Program Counter to the next address.
+   *
+   * @return the byte at that address, as shown on the data lights
+   */
+  public int examineNext() {
+    final int address = (cpu.getPC() + 1) & ADDRESS_MASK;
+    cpu.setPC(address);
+    return ram.read(address);
+  }
+
+  /**
+   * Reads bytes from the given address on into the array, as EXAMINE of the
+   * address and EXAMINE NEXT for each of the rest would, leaving the Program
+   * Counter at the last byte read, or at the address if the array is empty. The
+   * bytes are copied out of memory in bulk; the switches are left as they
+   * were.
+   */
+  public void examine(final int address,
+                      final byte[] data) {
+    ram.read(address, data, 0, data.length);
+    cpu.setPC((address + Math.max(data.length - 1, 0)) & ADDRESS_MASK);
+  }
+
+  /**
+   * DEPOSIT - Stores the data switches at the address in the Program Counter.
+   */
+  public void deposit() {
+    ram.write(cpu.getPC(), switches);
+  }
+
+  /**
+   * DEPOSIT NEXT - Steps the Program Counter to the next address, then stores
+   * the data switches there.
+   */
+  public void depositNext() {
+    final int address = (cpu.getPC() + 1) & ADDRESS_MASK;
+    cpu.setPC(address);
+    ram.write(address, switches);
+  }
+
+  /**
+   * Stores bytes from the given address on, as EXAMINE of the address, DEPOSIT
+   * of the first byte and DEPOSIT NEXT of each of the rest would, leaving the
+   * Program Counter at the last byte stored, or at the address if there are
+   * none. The bytes are copied into memory in bulk; the switches are left as
+   * they were.
+   */
+  public void deposit(final int address,
+                      final byte[] data) {
+    ram.write(address, data, 0, data.length);
+    cpu.setPC((address + Math.max(data.length - 1, 0)) & ADDRESS_MASK);
+  }
+
+  /**
+   * Stores bytes after the address in the Program Counter, as DEPOSIT NEXT of
+   * each byte in turn would, leaving the Program Counter at the last byte
+   * stored. The bytes are copied into memory in bulk; the switches are left as
+   * they were.
+   */
+  public void depositNext(final byte[] data) {
+    final int address = (cpu.getPC() + 1) & ADDRESS_MASK;
+    ram.write(address, data, 0, data.length);
+    cpu.setPC((address + data.length - 1) & ADDRESS_MASK);
+  }
+
+  /**
+   * Attaches a peripheral to the given I/O ports.
+   */
+  public void attach(final IoDevice device,
+                     final int... ports) {
+    io.attach(device, ports);
+  }
 }
@@ -0,0 +1,48 @@
+package alternate8888.machine;
+
+/**
+ * Live throughput metrics of one emulated machine, as published over JMX by
+ * {@link ComputerMonitor}.
+ *
+ * @author Tabby Cromarty
+ */
+public interface ComputerMXBean {
+
+  long getInstructions();
+
+  long getCycles();
+
+  /**
+   * @return the emulated clock rate over the last second, in MHz
+   */
+  double getEffectiveMHz1s();
+
+  /**
+   * @return the emulated clock rate over the last 10 seconds, in MHz
+   */
+  double getEffectiveMHz10s();
+
+  /**
+   * @return the emulated clock rate over the last minute, in MHz
+   */
+  double getEffectiveMHz60s();
+
+  boolean isHalted();
+
+  /**
+   * @return wall-clock time spent halted, in milliseconds
+   */
+  long getHaltedMillis();
+
+  long getInterruptCount();
+
+  /**
+   * @return IN instructions executed, indexed by port
+   */
+  long[] getInputCounts();
+
+  /**
+   * @return OUT instructions executed, indexed by port
+   */
+  long[] getOutputCounts();
+}
@@ -0,0 +1,189 @@
+package alternate8888.machine;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes a {@link ComputerMXBean} for one machine, so that it can be watched
+ * from JConsole, VisualVM or any other JMX client.
+ *
+ * Nothing here touches the CPU's run loop. The counters are the plain fields
+ * the CPU and I/O bus already keep, read without synchronization from the JMX
+ * thread, so a value may be a moment out of date. For the effective clock
+ * rates a shared daemon thread samples the cycle count once a second into a
+ * ring covering the last minute; a rate is the cycles run since the sample
+ * that long ago, or since the oldest sample if the monitor is younger.
+ *
+ * @author Tabby Cromarty
+ */
+public final class ComputerMonitor implements ComputerMXBean, AutoCloseable {
+
+  /**
+   * Domain of the object names machines are registered under.
+   */
+  public static final String DOMAIN = "alternate8888";
+
+  private static final int SAMPLES = 61;
+
+  private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(task -> {
+    final Thread thread = new Thread(task, "computer-monitor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Computer computer;
+  private final ObjectName name;
+  private final MBeanServer server;
+  private final ScheduledFuture<?> sampling;
+
+  // Ring of samples, one a second, guarded by this
+  private final long[] sampleNanos = new long[SAMPLES];
+  private final long[] sampleCycles = new long[SAMPLES];
+  private int samples;
+  private int newest = -1;
+
+  private ComputerMonitor(final Computer computer,
+                          final ObjectName name,
+                          final MBeanServer server) {
+    this.computer = computer;
+    this.name = name;
+    this.server = server;
+    sample();
+    this.sampling = SAMPLER.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Registers a monitor for the machine with the platform MBean server, as
+   * {@code alternate8888:type=Computer,name=<name>}.
+   *
+   * @throws IllegalArgumentException if the name is not usable, or is taken
+   */
+  public static ComputerMonitor register(final Computer computer,
+                                         final String name) {
+    return register(computer, name, ManagementFactory.getPlatformMBeanServer());
+  }
+
+  public static ComputerMonitor register(final Computer computer,
+                                         final String name,
+                                         final MBeanServer server) {
+    final ObjectName named;
+    try {
+      named = new ObjectName(DOMAIN + ":type=Computer,name=" + ObjectName.quote(name));
+    } catch (final JMException e) {
+      throw new IllegalArgumentException("Invalid machine name: " + name, e);
+    }
+    final ComputerMonitor monitor = new ComputerMonitor(computer, named, server);
+    try {
+      server.registerMBean(monitor, named);
+    } catch (final JMException e) {
+      monitor.sampling.cancel(false);
+      throw new IllegalArgumentException("Cannot register machine " + name, e);
+    }
+    return monitor;
+  }
+
+  public ObjectName getObjectName() {
+    return name;
+  }
+
+  /**
+   * Unregisters the MBean and stops sampling.
+   */
+  @Override
+  public void close() {
+    sampling.cancel(false);
+    try {
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+    } catch (final JMException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  synchronized void sample() {
+    newest = (newest + 1) % SAMPLES;
+    sampleNanos[newest] = System.nanoTime();
+    sampleCycles[newest] = computer.getCPU().getCycles();
+    samples = Math.min(samples + 1, SAMPLES);
+  }
+
+  /**
+   * @return the clock rate in MHz since the sample the given number of seconds
+   *         before the newest, or the oldest sample kept
+   */
+  private synchronized double effectiveMHz(final int seconds) {
+    final int back = Math.min(seconds, samples - 1);
+    final int from = ((newest - back) + SAMPLES) % SAMPLES;
+    final long nanos = System.nanoTime() - sampleNanos[from];
+    if (nanos <= 0) {
+      return 0;
+    }
+    return ((computer.getCPU().getCycles() - sampleCycles[from]) * 1000.0) / nanos;
+  }
+
+  @Override
+  public long getInstructions() {
+    return computer.getCPU().getInstructions();
+  }
+
+  @Override
+  public long getCycles() {
+    return computer.getCPU().getCycles();
+  }
+
+  @Override
+  public double getEffectiveMHz1s() {
+    return effectiveMHz(1);
+  }
+
+  @Override
+  public double getEffectiveMHz10s() {
+    return effectiveMHz(10);
+  }
+
+  @Override
+  public double getEffectiveMHz60s() {
+    return effectiveMHz(60);
+  }
+
+  @Override
+  public boolean isHalted() {
+    return computer.getCPU().isHalted();
+  }
+
+  @Override
+  public long getHaltedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(computer.getCPU().getHaltedNanos());
+  }
+
+  @Override
+  public long getInterruptCount() {
+    return computer.getCPU().getInterruptCount();
+  }
+
+  @Override
+  public long[] getInputCounts() {
+    final long[] counts = new long[IoBus.PORTS];
+    for (int port = 0; port < IoBus.PORTS; port++) {
+      counts[port] = computer.getIoBus().getInputCount(port);
+    }
+    return counts;
+  }
+
+  @Override
+  public long[] getOutputCounts() {
+    final long[] counts = new long[IoBus.PORTS];
+    for (int port = 0; port < IoBus.PORTS; port++) {
+      counts[port] = computer.getIoBus().getOutputCount(port);
+    }
+    return counts;
+  }
+}
@@ -0,0 +1,245 @@
+package alternate8888.machine;
+
+/**
+ * Execution breakpoints and memory watchpoints for one CPU.
+ *
+ * Breakpoints and watchpoints are kept as 64K-bit maps. The CPU looks at them
+ * only from a separate debug run loop, which {@link CPU#run(long)} chooses
+ * when any are set, so a CPU without any runs exactly the plain loop.
+ *
+ * Write watchpoints mark their page in {@link Memory}, whose write path
+ * already takes a slow path for flagged pages, and the slow path checks the
+ * address. Reads have no such path, so as not to slow every read of every
+ * machine; instead the debug loop works out the data addresses the next
+ * instruction will read and checks those.
+ *
+ * A breakpoint stops the CPU before the instruction at its address, and a
+ * watchpoint after the instruction that touched the address. A stopped CPU
+ * stays stopped, running nothing however often it is run, until
+ * {@link #resume()} is called. Resuming from a breakpoint passes over it once:
+ * the next instruction executed is the one at the breakpoint, rather than a
+ * second stop there. Breakpoints are otherwise checked before every
+ * instruction, including the first of a run and the first of an interrupt
+ * handler. {@link Host} and
+ * {@link Clock} leave a stopped machine idle, and resuming wakes it.
+ *
+ * @author Tabby Cromarty
+ */
+public class Debugger {
+
+  public enum Stop {
+    /**
+     * The last run was not stopped by the debugger.
+     */
+    NONE,
+    /**
+     * The Program Counter reached a breakpoint.
+     */
+    BREAKPOINT,
+    /**
+     * An instruction read a watched address.
+     */
+    READ_WATCHPOINT,
+    /**
+     * An instruction wrote a watched address.
+     */
+    WRITE_WATCHPOINT
+  }
+
+  private static final int WORDS = Memory.SIZE / Long.SIZE;
+
+  private final Memory ram;
+
+  private final long[] breakpoints = new long[WORDS];
+  private final long[] readWatchpoints = new long[WORDS];
+  private final long[] writeWatchpoints = new long[WORDS];
+  private final int[] writeWatchpointsPerPage = new int[Memory.PAGES];
+  private int breakpointCount;
+  private int readWatchpointCount;
+  private int writeWatchpointCount;
+
+  private volatile Stop stop = Stop.NONE;
+  private int stopAddress;
+
+  /**
+   * The breakpoint last resumed from, passed over by the next instruction
+   * only; -1 if none.
+   */
+  private int resumeAddress = -1;
+  private volatile Runnable resumeListener;
+
+  Debugger(final Memory ram) {
+    this.ram = ram;
+  }
+
+  public void setBreakpoint(final int address) {
+    breakpointCount += set(breakpoints, address);
+  }
+
+  public void clearBreakpoint(final int address) {
+    breakpointCount -= clear(breakpoints, address);
+  }
+
+  public boolean isBreakpoint(final int address) {
+    return isSet(breakpoints, address);
+  }
+
+  public void setReadWatchpoint(final int address) {
+    readWatchpointCount += set(readWatchpoints, address);
+  }
+
+  public void clearReadWatchpoint(final int address) {
+    readWatchpointCount -= clear(readWatchpoints, address);
+  }
+
+  public void setWriteWatchpoint(final int address) {
+    if (set(writeWatchpoints, address) != 0) {
+      writeWatchpointCount++;
+      final int page = (address & 0xffff) >>> 8;
+      if (writeWatchpointsPerPage[page]++ == 0) {
+        ram.setWatchListener(this::written);
+        ram.setWatched(page, true);
+      }
+    }
+  }
+
+  public void clearWriteWatchpoint(final int address) {
+    if (clear(writeWatchpoints, address) != 0) {
+      writeWatchpointCount--;
+      final int page = (address & 0xffff) >>> 8;
+      if (--writeWatchpointsPerPage[page] == 0) {
+        ram.setWatched(page, false);
+      }
+    }
+  }
+
+  /**
+   * Removes every breakpoint and watchpoint.
+   */
+  public void clearAll() {
+    for (int address = 0; address < Memory.SIZE; address++) {
+      clearBreakpoint(address);
+      clearReadWatchpoint(address);
+      clearWriteWatchpoint(address);
+    }
+  }
+
+  /**
+   * @return true if any breakpoint or watchpoint is set
+   */
+  public boolean isActive() {
+    return (breakpointCount | readWatchpointCount | writeWatchpointCount) != 0;
+  }
+
+  /**
+   * @return why the CPU is stopped, or {@link Stop#NONE} if it is not
+   */
+  public Stop getStop() {
+    return stop;
+  }
+
+  /**
+   * @return the breakpoint or watched address the CPU stopped at
+   */
+  public int getStopAddress() {
+    return stopAddress;
+  }
+
+  boolean hasReadWatchpoints() {
+    return readWatchpointCount != 0;
+  }
+
+  boolean isReadWatchpoint(final int address) {
+    return isSet(readWatchpoints, address);
+  }
+
+  /**
+   * @return true if a breakpoint or watchpoint has stopped the CPU and it has
+   *         not been resumed
+   */
+  public boolean isStopped() {
+    return stop != Stop.NONE;
+  }
+
+  /**
+   * Lets a stopped CPU run again, and tells the resume listener.
+   */
+  public void resume() {
+    resumeAddress = (stop == Stop.BREAKPOINT) ? stopAddress : -1;
+    stop = Stop.NONE;
+    final Runnable listener = resumeListener;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Sets the listener told when the CPU is resumed, typically whatever runs it;
+   * null removes it.
+   */
+  public void setResumeListener(final Runnable listener) {
+    this.resumeListener = listener;
+  }
+
+  /**
+   * Called before each instruction of a debug run.
+   *
+   * @return true if there is a breakpoint at the address, other than the one
+   *         just resumed from
+   */
+  boolean breaksAt(final int address) {
+    final int resumed = resumeAddress;
+    resumeAddress = -1;
+    return isSet(breakpoints, address) && (address != resumed);
+  }
+
+  /**
+   * Forgets the breakpoint resumed from, once an instruction has been stepped
+   * outside a debug run.
+   */
+  void stepped() {
+    resumeAddress = -1;
+  }
+
+  void stop(final Stop reason,
+            final int address) {
+    if (stop == Stop.NONE) {
+      stop = reason;
+      stopAddress = address & 0xffff;
+    }
+  }
+
+  private void written(final int address) {
+    if (isSet(writeWatchpoints, address)) {
+      stop(Stop.WRITE_WATCHPOINT, address);
+    }
+  }
+
+  private static int set(final long[] map,
+                         final int address) {
+    final int a = address & 0xffff;
+    final long bit = 1L << a;
+    if ((map[a >>> 6] & bit) != 0) {
+      return 0;
+    }
+    map[a >>> 6] |= bit;
+    return 1;
+  }
+
+  private static int clear(final long[] map,
+                           final int address) {
+    final int a = address & 0xffff;
+    final long bit = 1L << a;
+    if ((map[a >>> 6] & bit) == 0) {
+      return 0;
+    }
+    map[a >>> 6] &= ~bit;
+    return 1;
+  }
+
+  private static boolean isSet(final long[] map,
+                               final int address) {
+    final int a = address & 0xffff;
+    return (map[a >>> 6] & (1L << a)) != 0;
+  }
+}
@@ -0,0 +1,314 @@
+package alternate8888.machine;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The lights of the Altair front panel: the eight {@link StatusLeds}, the
+ * sixteen address lights, the eight data lights and INTE.
+ *
+ * The CPU does not drive the lights as it runs; updating them on every bus
+ * cycle would cost more than the instruction. Instead {@link #sample()}
+ * derives them from the CPU's state when asked, typically at the display's
+ * refresh rate. A running CPU is shown as it is between instructions, at the
+ * fetch of the next one: MEMR, M1 and WO lit, the Program Counter on the
+ * address lights and the opcode on the data lights. A halted one shows HLTA
+ * and WO with the data bus floating. WO follows the active-low signal, so it
+ * is lit for reads, as on the real panel.
+ *
+ * A snapshot of one moment makes the lights look still, where the real ones
+ * glow in proportion to how often each line is active. A panel created with
+ * intensity enabled attaches to the CPU, which then weights each light by the
+ * cycles it was lit, and reports that share as a brightness between 0 and 1.
+ * The counting runs on every instruction, through the CPU's instrumented
+ * loop, so it slows the machine; with no panel attached, or one without
+ * intensity, the CPU pays nothing. A CPU takes one intensity panel at a time;
+ * {@link #detach()} the old one before creating another. The accumulation is
+ * approximate: all of an instruction's cycles are counted at its fetch address
+ * and opcode, and its status lights are those of its fetch followed by its
+ * main kind of machine cycle (memory or stack read or write, input or output).
+ *
+ * Each sample hands the CPU a fresh accumulator, which it takes up at the start
+ * of its next slice, giving back the one it finished. So the intensity in a
+ * sample is that of the period between the two samples before it, one frame
+ * behind the snapshot; if the CPU has run no slice since the previous sample,
+ * the sample has no intensity.
+ *
+ * The snapshot state is read without synchronization from whatever thread
+ * samples it, so a sample may mix values from neighbouring instructions; for
+ * lights that is of no consequence.
+ *
+ * @author Tabby Cromarty
+ */
+public class FrontPanel {
+
+  private static final int STATUS_LEDS = StatusLeds.values().length;
+
+  private static final int MEMR = 1 << StatusLeds.MEMR.ordinal();
+  private static final int INP = 1 << StatusLeds.INP.ordinal();
+  private static final int M1 = 1 << StatusLeds.M1.ordinal();
+  private static final int OUT = 1 << StatusLeds.OUT.ordinal();
+  private static final int HLTA = 1 << StatusLeds.HLTA.ordinal();
+  private static final int STACK = 1 << StatusLeds.STACK.ordinal();
+  private static final int WO = 1 << StatusLeds.WO.ordinal();
+  private static final int INT = 1 << StatusLeds.INT.ordinal();
+
+  /**
+   * Clock states of the M1 fetch cycle.
+   */
+  private static final int FETCH_STATES = 4;
+
+  /**
+   * Status lights of each opcode's cycles after the fetch.
+   */
+  private static final int[] EXECUTE_STATUS = new int[256];
+
+  static {
+    for (int opcode = 0; opcode < 256; opcode++) {
+      // Operand and memory reads, and internal states, by default
+      EXECUTE_STATUS[opcode] = MEMR | WO;
+      if ((((opcode & 0370) == 0160) && (opcode != 0166)) || (opcode == 0066) || (opcode == 0002)
+          || (opcode == 0022) || (opcode == 0062) || (opcode == 0042)) {
+        // MOV M,r, MVI M, STAX, STA and SHLD write memory
+        EXECUTE_STATUS[opcode] = 0;
+      } else if (((opcode & 0317) == 0305) || ((opcode & 0307) == 0304) || ((opcode & 0307) == 0307)
+          || (opcode == 0315) || (opcode == 0335) || (opcode == 0355) || (opcode == 0375)) {
+        // PUSH, CALL, Ccc and RST write the stack
+        EXECUTE_STATUS[opcode] = STACK;
+      } else if (((opcode & 0317) == 0301) || ((opcode & 0307) == 0300) || (opcode == 0311)
+          || (opcode == 0331) || (opcode == 0343)) {
+        // POP, RET, Rcc and XTHL read the stack
+        EXECUTE_STATUS[opcode] = MEMR | WO | STACK;
+      } else if (opcode == 0333) {
+        EXECUTE_STATUS[opcode] = INP | WO;
+      } else if (opcode == 0323) {
+        EXECUTE_STATUS[opcode] = OUT;
+      } else if (opcode == 0166) {
+        EXECUTE_STATUS[opcode] = HLTA | WO;
+      }
+    }
+  }
+
+  private final Computer computer;
+  private boolean intensity;
+
+  /**
+   * Creates a panel that samples the machine's state without accumulating
+   * intensity; the CPU is not touched.
+   */
+  public FrontPanel(final Computer computer) {
+    this(computer, false);
+  }
+
+  /**
+   * @param intensity whether to attach an accumulator for light intensity
+   * @throws IllegalStateException if intensity is asked for and another panel
+   *                               with intensity is attached to the CPU
+   */
+  public FrontPanel(final Computer computer,
+                    final boolean intensity) {
+    this.computer = computer;
+    this.intensity = intensity;
+    if (intensity && !computer.getCPU().attachPanel(new Accumulator())) {
+      throw new IllegalStateException("The CPU already has a panel showing intensity");
+    }
+  }
+
+  /**
+   * Detaches the intensity accumulator from the CPU, if there is one. The panel
+   * goes on sampling the lights as they are, without intensity.
+   */
+  public void detach() {
+    if (intensity) {
+      intensity = false;
+      computer.getCPU().detachPanel();
+    }
+  }
+
+  /**
+   * Reads the lights as they are now. With intensity enabled, also starts a new
+   * accumulation period, and reports the intensity of the last one the CPU has
+   * finished.
+   */
+  public Lights sample() {
+    final CPU cpu = computer.getCPU();
+    final int address = cpu.getPC();
+    final boolean halted = cpu.isHalted();
+    final int status = halted ? (HLTA | WO) : (MEMR | M1 | WO);
+    final int data = halted ? 0xFF : computer.getMemory().read(address);
+    final Lights lights = new Lights(status, address, data, cpu.isInterruptsEnabled());
+
+    if (intensity) {
+      lights.setIntensity(cpu.swapPanelAccumulator(new Accumulator()));
+    }
+    return lights;
+  }
+
+  /**
+   * The state of the lights at one sample.
+   */
+  public static final class Lights {
+
+    private final int status;
+    private final int address;
+    private final int data;
+    private final boolean interruptsEnabled;
+
+    private float[] statusIntensity;
+    private float[] addressIntensity;
+    private float[] dataIntensity;
+
+    Lights(final int status,
+           final int address,
+           final int data,
+           final boolean interruptsEnabled) {
+      this.status = status;
+      this.address = address;
+      this.data = data;
+      this.interruptsEnabled = interruptsEnabled;
+    }
+
+    /**
+     * Sets the intensities from an accumulator's counts, or leaves them at the
+     * sampled state if there is none or it saw no cycles.
+     */
+    void setIntensity(final Accumulator counts) {
+      if (counts == null) {
+        return;
+      }
+      final long total = counts.cycles;
+      if (total == 0) {
+        return;
+      }
+      statusIntensity = new float[STATUS_LEDS];
+      for (int led = 0; led < STATUS_LEDS; led++) {
+        statusIntensity[led] = counts.statusCycles[led] / (float) total;
+      }
+      addressIntensity = new float[16];
+      for (int bit = 0; bit < 16; bit++) {
+        addressIntensity[bit] = counts.addressCycles[bit] / (float) total;
+      }
+      dataIntensity = new float[8];
+      for (int bit = 0; bit < 8; bit++) {
+        dataIntensity[bit] = counts.dataCycles[bit] / (float) total;
+      }
+    }
+
+    public boolean isLit(final StatusLeds led) {
+      return (status & (1 << led.ordinal())) != 0;
+    }
+
+    public Set<StatusLeds> getLit() {
+      final Set<StatusLeds> lit = EnumSet.noneOf(StatusLeds.class);
+      for (final StatusLeds led : StatusLeds.values()) {
+        if (isLit(led)) {
+          lit.add(led);
+        }
+      }
+      return lit;
+    }
+
+    /**
+     * @return the value on the address lights, A15 in bit 15
+     */
+    public int getAddress() {
+      return address;
+    }
+
+    /**
+     * @return the value on the data lights, D7 in bit 7
+     */
+    public int getData() {
+      return data;
+    }
+
+    public boolean isInterruptsEnabled() {
+      return interruptsEnabled;
+    }
+
+    /**
+     * @return the brightness of a status light, 0-1; without intensity, 1 if
+     *         it is lit and 0 if not
+     */
+    public float getIntensity(final StatusLeds led) {
+      if (statusIntensity == null) {
+        return isLit(led) ? 1 : 0;
+      }
+      return statusIntensity[led.ordinal()];
+    }
+
+    /**
+     * @return the brightness of address light A0-A15, 0-1
+     */
+    public float getAddressIntensity(final int bit) {
+      if (addressIntensity == null) {
+        return (address >>> bit) & 1;
+      }
+      return addressIntensity[bit];
+    }
+
+    /**
+     * @return the brightness of data light D0-D7, 0-1
+     */
+    public float getDataIntensity(final int bit) {
+      if (dataIntensity == null) {
+        return (data >>> bit) & 1;
+      }
+      return dataIntensity[bit];
+    }
+  }
+
+  /**
+   * Counts the cycles each light is lit, from the CPU's thread. A new one is
+   * handed over at every sample, and the sampling thread only reads one the
+   * CPU has finished with and handed back.
+   */
+  static final class Accumulator {
+
+    private final long[] statusCycles = new long[STATUS_LEDS];
+    private final long[] addressCycles = new long[16];
+    private final long[] dataCycles = new long[8];
+    private long cycles;
+
+    /**
+     * Counts one executed instruction.
+     *
+     * @param pc     address of the instruction
+     * @param cycles clock cycles it took
+     */
+    void executed(final int pc,
+                  final int opcode,
+                  final int cycles) {
+      this.cycles += cycles;
+      final int fetch = Math.min(cycles, FETCH_STATES);
+      addStatus(MEMR | M1 | WO, fetch);
+      addStatus(EXECUTE_STATUS[opcode], cycles - fetch);
+      for (int bit = 0; bit < 16; bit++) {
+        addressCycles[bit] += ((pc >>> bit) & 1) * cycles;
+      }
+      for (int bit = 0; bit < 8; bit++) {
+        dataCycles[bit] += ((opcode >>> bit) & 1) * cycles;
+      }
+    }
+
+    /**
+     * Counts an accepted interrupt, whose RST comes from the interrupting
+     * device rather than memory.
+     */
+    void interrupted(final int cycles) {
+      this.cycles += cycles;
+      final int fetch = Math.min(cycles, FETCH_STATES);
+      addStatus(INT | M1 | WO, fetch);
+      addStatus(STACK, cycles - fetch);
+    }
+
+    private void addStatus(final int lit,
+                           final int cycles) {
+      for (int led = 0; led < STATUS_LEDS; led++) {
+        if ((lit & (1 << led)) != 0) {
+          statusCycles[led] += cycles;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package alternate8888.machine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event spanning a halt, from HLT to the interrupt or reset that ends it.
+ *
+ * @author Tabby Cromarty
+ */
+@Name("alternate8888.Halt")
+@Label("Halt")
+@Category("Alternate 8888")
+@Description("A machine halted, waiting for an interrupt")
+final class HaltEvent extends Event {
+
+  static final HaltEvent PROBE = new HaltEvent();
+
+  @Label("Machine")
+  long machine;
+
+  @Label("Address")
+  @Description("Address of the instruction after the HLT")
+  int address;
+}
@@ -0,0 +1,258 @@
+package alternate8888.machine;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many machines at once, each as a series of cycle-budgeted slices on a
+ * shared pool with one thread per core.
+ *
+ * A machine is scheduled one slice at a time, and a running machine queues
+ * its next slice at the back of a single run queue shared by all the workers,
+ * so machines take turns round-robin and any free worker takes the next one.
+ * (A work-stealing pool runs a worker's own queue before anything else, which
+ * starves the other machines when every slice queues another.) A halted machine
+ * is not scheduled at all: it is woken by the wake listener on its interrupt
+ * controller when an interrupt is requested, so thousands of halted machines
+ * cost no CPU time. A machine that spins in a polling loop is busy, not idle.
+ * Likewise a machine stopped at a breakpoint or watchpoint goes idle until its
+ * {@link Debugger} is resumed.
+ *
+ * Machines run as fast as the host allows; use a {@link Clock} per machine
+ * where real-time pacing matters more than throughput.
+ *
+ * @author Tabby Cromarty
+ */
+public class Host implements AutoCloseable {
+
+  /**
+   * Clock cycles per slice: 10 ms of a 2 MHz 8080, and tens of microseconds of
+   * host time.
+   */
+  public static final long DEFAULT_SLICE_CYCLES = 20_000;
+
+  private final ExecutorService pool;
+  private final long sliceCycles;
+  private final Set<Machine> machines = ConcurrentHashMap.newKeySet();
+  private final long startNanos = System.nanoTime();
+
+  private volatile boolean running = true;
+
+  public Host() {
+    this(Runtime.getRuntime().availableProcessors(), DEFAULT_SLICE_CYCLES);
+  }
+
+  /**
+   * @param parallelism number of worker threads
+   * @param sliceCycles clock cycles each machine runs before yielding
+   */
+  public Host(final int parallelism,
+              final long sliceCycles) {
+    if ((parallelism <= 0) || (sliceCycles <= 0)) {
+      throw new IllegalArgumentException("Parallelism and slice length must be positive");
+    }
+    final AtomicInteger threads = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(parallelism, task -> {
+      final Thread thread = new Thread(task, "host-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.sliceCycles = sliceCycles;
+  }
+
+  /**
+   * Starts running a machine. The host takes over its interrupt controller's
+   * wake listener and its debugger's resume listener; the machine must not also
+   * be run by a {@link Clock}.
+   */
+  public Machine add(final Computer computer) {
+    if (!running) {
+      throw new IllegalStateException("Host is closed");
+    }
+    final Machine machine = new Machine(computer);
+    machines.add(machine);
+    computer.getInterruptController().setWakeListener(machine::wake);
+    computer.getCPU().getDebugger().setResumeListener(machine::wake);
+    machine.wake();
+    return machine;
+  }
+
+  /**
+   * Stops running a machine, at the end of its current slice if it is running
+   * one.
+   */
+  public void remove(final Machine machine) {
+    if (machines.remove(machine)) {
+      machine.state.set(Machine.REMOVED);
+      machine.computer.getInterruptController().setWakeListener(null);
+      machine.computer.getCPU().getDebugger().setResumeListener(null);
+    }
+  }
+
+  public Collection<Machine> getMachines() {
+    return Collections.unmodifiableSet(machines);
+  }
+
+  /**
+   * @return clock cycles executed by all current machines since they were added
+   */
+  public long getTotalCycles() {
+    long total = 0;
+    for (final Machine machine : machines) {
+      total += machine.cycles;
+    }
+    return total;
+  }
+
+  /**
+   * @return the aggregate clock rate of all current machines since the host
+   *         started, in Hz
+   */
+  public double getCyclesPerSecond() {
+    return rate(getTotalCycles(), System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Stops scheduling slices and waits up to a second for those running to
+   * finish.
+   */
+  @Override
+  public void close() {
+    running = false;
+    pool.shutdown();
+    try {
+      pool.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static double rate(final long cycles,
+                             final long nanos) {
+    return (nanos <= 0) ? 0 : ((cycles * (double) TimeUnit.SECONDS.toNanos(1)) / nanos);
+  }
+
+  /**
+   * A machine run by the host.
+   */
+  public final class Machine implements Runnable {
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int REMOVED = 2;
+
+    private final Computer computer;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private final long addedNanos = System.nanoTime();
+    private final long startCycles;
+
+    /**
+     * Cycles executed since the machine was added, published after each slice.
+     */
+    private volatile long cycles;
+
+    private volatile RuntimeException failure;
+
+    Machine(final Computer computer) {
+      this.computer = computer;
+      this.startCycles = computer.getCPU().getCycles();
+    }
+
+    public Computer getComputer() {
+      return computer;
+    }
+
+    /**
+     * @return clock cycles executed since the machine was added
+     */
+    public long getCycles() {
+      return cycles;
+    }
+
+    /**
+     * @return the machine's clock rate since it was added, in Hz
+     */
+    public double getCyclesPerSecond() {
+      return rate(cycles, System.nanoTime() - addedNanos);
+    }
+
+    /**
+     * @return true if the machine is halted and waiting for an interrupt, or
+     *         stopped by its debugger and waiting to be resumed
+     */
+    public boolean isIdle() {
+      return state.get() == IDLE;
+    }
+
+    /**
+     * @return the exception that stopped the machine, or null
+     */
+    public RuntimeException getFailure() {
+      return failure;
+    }
+
+    /**
+     * Schedules a slice if the machine is idle.
+     */
+    void wake() {
+      if (running && state.compareAndSet(IDLE, SCHEDULED)) {
+        submit();
+      }
+    }
+
+    private void submit() {
+      try {
+        pool.execute(this);
+      } catch (final RejectedExecutionException e) {
+        // The host has been closed
+      }
+    }
+
+    /**
+     * Runs one slice, then queues the next unless the machine has halted or
+     * its debugger has stopped it.
+     */
+    @Override
+    public void run() {
+      if (!running || (state.get() == REMOVED)) {
+        return;
+      }
+      final CPU cpu = computer.getCPU();
+      try {
+        cpu.run(sliceCycles);
+      } catch (final RuntimeException e) {
+        failure = e;
+        remove(this);
+        return;
+      } finally {
+        cycles = cpu.getCycles() - startCycles;
+      }
+      final Debugger debugger = cpu.getDebugger();
+      if (debugger.isStopped()) {
+        // Stopped: go idle, unless it was resumed before the listener could see
+        // the machine was idle
+        if (state.compareAndSet(SCHEDULED, IDLE) && !debugger.isStopped()) {
+          wake();
+        }
+        return;
+      }
+      if (!cpu.isHalted()) {
+        submit();
+        return;
+      }
+      // Halted: go idle, unless a request slipped in before the listener could
+      // see the machine was idle
+      if (state.compareAndSet(SCHEDULED, IDLE) && cpu.isInterruptsEnabled()
+          && computer.getInterruptController().isPending()) {
+        wake();
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package alternate8888.machine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The interrupt request line of a single CPU.
+ *
+ * Devices raise requests from any thread with {@link #request(int)}; each
+ * request names the RST vector (0-7) the CPU should execute when it accepts it.
+ * Pending requests are kept as one bit per vector in a single atomic word, so
+ * raising and acknowledging never takes a lock. A halted CPU parks its thread
+ * in {@link #await(long)} and is unparked directly by the request that wakes
+ * it; there is no monitor shared between machines. A scheduler that does not
+ * park a thread per machine can instead set a wake listener, which each
+ * request calls.
+ *
+ * @author Tabby Cromarty
+ */
+public class InterruptController {
+
+  private final AtomicInteger pending = new AtomicInteger();
+
+  private volatile Thread waiter;
+
+  private volatile Runnable wakeListener;
+
+  /**
+   * Raises an interrupt request. The request stays pending until the CPU
+   * acknowledges it or it is cancelled.
+   *
+   * @param vector the RST number, 0-7, the CPU will execute
+   */
+  public void request(final int vector) {
+    pending.getAndAccumulate(bit(vector), (requests, bit) -> requests | bit);
+    final Thread thread = waiter;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+    final Runnable listener = wakeListener;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Sets a listener called, on the requesting thread, after every request is
+   * raised. It must be quick and must not block.
+   */
+  public void setWakeListener(final Runnable listener) {
+    wakeListener = listener;
+  }
+
+  /**
+   * Withdraws a pending request that has not been acknowledged yet.
+   */
+  public void cancel(final int vector) {
+    pending.getAndAccumulate(bit(vector), (requests, bit) -> requests & ~bit);
+  }
+
+  public boolean isPending() {
+    return pending.get() != 0;
+  }
+
+  /**
+   * Takes the pending request with the lowest vector number.
+   *
+   * @return the RST vector, or -1 if nothing is pending
+   */
+  int acknowledge() {
+    while (true) {
+      final int requests = pending.get();
+      if (requests == 0) {
+        return -1;
+      }
+      final int vector = Integer.numberOfTrailingZeros(requests);
+      if (pending.compareAndSet(requests, requests & ~(1 << vector))) {
+        return vector;
+      }
+    }
+  }
+
+  /**
+   * Parks the calling thread until a request is pending, the timeout passes or
+   * the thread is interrupted.
+   *
+   * @return true if a request is pending
+   */
+  public boolean await(final long timeoutNanos) {
+    final long deadline = System.nanoTime() + timeoutNanos;
+    waiter = Thread.currentThread();
+    try {
+      while (!isPending()) {
+        final long remaining = deadline - System.nanoTime();
+        if ((remaining <= 0) || Thread.currentThread().isInterrupted()) {
+          break;
+        }
+        LockSupport.parkNanos(this, remaining);
+      }
+    } finally {
+      waiter = null;
+    }
+    return isPending();
+  }
+
+  private static int bit(final int vector) {
+    if ((vector < 0) || (vector > 7)) {
+      throw new IllegalArgumentException("Interrupt vector must be 0-7: " + vector);
+    }
+    return 1 << vector;
+  }
+}
@@ -0,0 +1,35 @@
+package alternate8888.machine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for an interrupt accepted by the CPU.
+ *
+ * @author Tabby Cromarty
+ */
+@Name("alternate8888.Interrupt")
+@Label("Interrupt")
+@Category("Alternate 8888")
+@Description("A machine accepted an interrupt request")
+final class InterruptEvent extends Event {
+
+  static final InterruptEvent PROBE = new InterruptEvent();
+
+  @Label("Machine")
+  long machine;
+
+  @Label("Vector")
+  @Description("The RST number executed, 0-7")
+  int vector;
+
+  @Label("Address")
+  @Description("Address of the instruction interrupted")
+  int address;
+
+  @Label("Was Halted")
+  boolean halted;
+}
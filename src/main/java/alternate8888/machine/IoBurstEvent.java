@@ -0,0 +1,36 @@
+package alternate8888.machine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a burst of IN or OUT instructions on one port, with no I/O to
+ * another port or in the other direction between them. A burst never spans
+ * more than one {@link CPU#run(long)} or {@link CPU#step()}.
+ *
+ * @author Tabby Cromarty
+ */
+@Name("alternate8888.IoBurst")
+@Label("Device I/O Burst")
+@Category("Alternate 8888")
+@Description("Consecutive IN or OUT instructions on one port")
+final class IoBurstEvent extends Event {
+
+  static final IoBurstEvent PROBE = new IoBurstEvent();
+
+  @Label("Machine")
+  long machine;
+
+  @Label("Port")
+  int port;
+
+  @Label("Output")
+  @Description("OUT rather than IN")
+  boolean output;
+
+  @Label("Operations")
+  long count;
+}
@@ -0,0 +1,101 @@
+package alternate8888.machine;
+
+/**
+ * The 256 I/O ports of the 8080, each mapped to the device attached to it.
+ *
+ * Ports are held in a table indexed by port number, so IN and OUT find their
+ * device with a single array load. Ports with nothing attached hold a shared
+ * device that reads as 0xFF, as a floating data bus does on the Altair, and
+ * ignores writes; the table never contains null.
+ *
+ * Every IN and OUT is counted per port. The counts are plain fields, written
+ * only by the thread running the CPU; other threads may read them for
+ * monitoring and see values a little out of date.
+ *
+ * @author Tabby Cromarty
+ */
+public class IoBus {
+
+  public static final int PORTS = 256;
+
+  private static final IoDevice UNMAPPED = new IoDevice() {
+
+    @Override
+    public int in(final int port) {
+      return 0xFF;
+    }
+
+    @Override
+    public void out(final int port,
+                    final int value) {
+    }
+  };
+
+  private final IoDevice[] devices = new IoDevice[PORTS];
+  private final long[] inputs = new long[PORTS];
+  private final long[] outputs = new long[PORTS];
+
+  public IoBus() {
+    for (int port = 0; port < PORTS; port++) {
+      devices[port] = UNMAPPED;
+    }
+  }
+
+  /**
+   * Attaches a device to the given ports, replacing whatever was there.
+   */
+  public void attach(final IoDevice device,
+                     final int... ports) {
+    if (device == null) {
+      throw new IllegalArgumentException("Device must not be null");
+    }
+    for (final int port : ports) {
+      devices[checkPort(port)] = device;
+    }
+  }
+
+  /**
+   * Leaves the given ports unmapped.
+   */
+  public void detach(final int... ports) {
+    for (final int port : ports) {
+      devices[checkPort(port)] = UNMAPPED;
+    }
+  }
+
+  public boolean isMapped(final int port) {
+    return devices[checkPort(port)] != UNMAPPED;
+  }
+
+  public int in(final int port) {
+    inputs[port]++;
+    return devices[port].in(port) & 0xFF;
+  }
+
+  public void out(final int port,
+                  final int value) {
+    outputs[port]++;
+    devices[port].out(port, value & 0xFF);
+  }
+
+  /**
+   * @return the number of IN instructions executed on the port
+   */
+  public long getInputCount(final int port) {
+    return inputs[checkPort(port)];
+  }
+
+  /**
+   * @return the number of OUT instructions executed on the port
+   */
+  public long getOutputCount(final int port) {
+    return outputs[checkPort(port)];
+  }
+
+  private static int checkPort(final int port) {
+    if ((port < 0) || (port >= PORTS)) {
+      throw new IllegalArgumentException("Port must be 0-255: " + port);
+    }
+    return port;
+  }
+}
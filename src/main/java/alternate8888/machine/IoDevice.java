@@ -0,0 +1,27 @@
+package alternate8888.machine;
+
+/**
+ * A peripheral attached to one or more I/O ports, addressed by the IN and OUT
+ * instructions.
+ *
+ * @author Tabby Cromarty
+ */
+public interface IoDevice {
+
+  /**
+   * Called when the CPU executes IN for a port this device is attached to.
+   *
+   * @param port the port number, 0-255
+   * @return the byte placed on the data bus
+   */
+  int in(int port);
+
+  /**
+   * Called when the CPU executes OUT for a port this device is attached to.
+   *
+   * @param port  the port number, 0-255
+   * @param value the accumulator byte
+   */
+  void out(int port,
+           int value);
+}
@@ -1,69 +1,426 @@
 package alternate8888.machine;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
 /**
+ * The full 64K address space of the 8080, held as a table of 256-byte pages.
+ *
+ * Addresses wrap around at 16 bits, just as the address bus does, so reading
+ * one past 0xFFFF returns the byte at 0x0000.
+ *
+ * Pages are copy-on-write. {@link #fork()} makes a new address space that
+ * shares every page with this one, at the cost of copying the page table, and
+ * a page is copied only when either side first writes to it. Pages that are
+ * never written, such as a booted BASIC or monitor, stay shared between all
+ * the machines forked from one template. A new memory starts with every page
+ * sharing a single page of zeroes.
+ *
+ * Writes are also tracked per page, so that a checkpoint need only save the
+ * pages written since the last one. Each page has a flag byte; a write to a
+ * page whose flags are all clear costs one extra load and branch, and only the
+ * first write to a clean or shared page takes the slow path.
+ *
  * @author Tabby Cromarty
  */
 public class Memory {
 
-  private final MemoryRegister[] bytes;
+  /**
+   * Number of bytes addressable by the 16-bit address bus.
+   */
+  public static final int SIZE = 0x10000;
+
+  /**
+   * Number of bytes in a page, the unit of sharing and write tracking.
+   */
+  public static final int PAGE_SIZE = 0x100;
+
+  /**
+   * Number of pages in the address space.
+   */
+  public static final int PAGES = SIZE / PAGE_SIZE;
+
+  private static final int ADDRESS_MASK = SIZE - 1;
+  private static final int PAGE_SHIFT = 8;
+  private static final int OFFSET_MASK = PAGE_SIZE - 1;
+
+  /**
+   * Page flag: the page has not been written since the last checkpoint, and the
+   * next write must mark it dirty.
+   */
+  private static final byte CLEAN = 0x01;
+
+  /**
+   * Page flag: the page may be shared with another memory, and must be copied
+   * before it is written.
+   */
+  private static final byte SHARED = 0x02;
+
+  /**
+   * Page flag: the page holds code that has been translated, and the
+   * {@link CodeListener} must hear of the next write to it.
+   */
+  private static final byte CODE = 0x04;
+
+  /**
+   * Page flag: the page holds a write watchpoint, and every write to it must
+   * be reported to the {@link WatchListener}. Unlike the other flags it is not
+   * cleared by the write.
+   */
+  private static final byte WATCH = 0x08;
+
+  /**
+   * Told when a page marked as holding translated code is written.
+   */
+  @FunctionalInterface
+  interface CodeListener {
+
+    void codeWritten(int page);
+  }
+
+  /**
+   * Told of every write to a page marked with {@link #setWatched(int, boolean)}.
+   */
+  @FunctionalInterface
+  interface WatchListener {
+
+    void watchedPageWritten(int address);
+  }
+
+  private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+  private final byte[][] pages = new byte[PAGES][];
+  private final byte[] pageFlags = new byte[PAGES];
+  private final long[] dirtyPages = new long[PAGES / Long.SIZE];
+
+  private CodeListener codeListener;
+  private WatchListener watchListener;
+
+  /**
+   * Register views handed out by {@link #address(int)}, created on first use
+   * of each address and reused after.
+   */
+  private MemoryRegister[] views;
 
   public Memory() {
-    this(8096);
+    Arrays.fill(pages, ZERO_PAGE);
+    Arrays.fill(pageFlags, (byte) (CLEAN | SHARED));
   }
 
-  public Memory(final int numBytes) {
-    bytes = new MemoryRegister[numBytes];
-    for (int i = 0; i < numBytes; i++) {
-      bytes[i] = new MemoryRegister();
+  private Memory(final Memory template) {
+    System.arraycopy(template.pages, 0, pages, 0, PAGES);
+    for (int page = 0; page < PAGES; page++) {
+      template.pageFlags[page] |= SHARED;
     }
+    Arrays.fill(pageFlags, (byte) (CLEAN | SHARED));
   }
 
+  /**
+   * Returns a copy of this address space that shares all its pages with this
+   * one until they are written. Must not be called while a CPU is running on
+   * this memory.
+   */
+  public Memory fork() {
+    return new Memory(this);
+  }
+
+  /**
+   * Reads the byte at the given address.
+   *
+   * @param addr address, wrapped to 16 bits
+   * @return the unsigned byte value
+   */
+  public int read(final int addr) {
+    final int address = addr & ADDRESS_MASK;
+    return pages[address >>> PAGE_SHIFT][address & OFFSET_MASK] & 0xff;
+  }
+
+  /**
+   * Reads a run of bytes starting at the given address, wrapping at 0xFFFF,
+   * with one array copy per page touched.
+   *
+   * @param addr   address of the first byte, wrapped to 16 bits
+   * @param data   array to read into
+   * @param offset index in the array of the first byte
+   * @param length number of bytes to read
+   */
+  public void read(final int addr,
+                   final byte[] data,
+                   final int offset,
+                   final int length) {
+    if ((offset < 0) || (length < 0) || (length > (data.length - offset))) {
+      throw new IndexOutOfBoundsException("Invalid range " + offset + "+" + length + " of " + data.length);
+    }
+    int address = addr & ADDRESS_MASK;
+    int to = offset;
+    int remaining = length;
+    while (remaining > 0) {
+      final int start = address & OFFSET_MASK;
+      final int count = Math.min(remaining, PAGE_SIZE - start);
+      System.arraycopy(pages[address >>> PAGE_SHIFT], start, data, to, count);
+      address = (address + count) & ADDRESS_MASK;
+      to += count;
+      remaining -= count;
+    }
+  }
+
+  /**
+   * Writes the low 8 bits of the given value to the given address.
+   *
+   * @param addr  address, wrapped to 16 bits
+   * @param value value to store
+   */
+  public void write(final int addr,
+                    final int value) {
+    final int address = addr & ADDRESS_MASK;
+    final int page = address >>> PAGE_SHIFT;
+    if (pageFlags[page] != 0) {
+      trap(page, address);
+    }
+    pages[page][address & OFFSET_MASK] = (byte) value;
+  }
+
+  /**
+   * Writes a run of bytes starting at the given address, wrapping at 0xFFFF,
+   * with one array copy per page touched. Tracking, copy-on-write and code and
+   * watch listeners all see it as the same bytes written one at a time.
+   *
+   * @param addr   address of the first byte, wrapped to 16 bits
+   * @param data   bytes to store
+   * @param offset index of the first byte in the array
+   * @param length number of bytes to store
+   */
+  public void write(final int addr,
+                    final byte[] data,
+                    final int offset,
+                    final int length) {
+    if ((offset < 0) || (length < 0) || (length > (data.length - offset))) {
+      throw new IndexOutOfBoundsException("Invalid range " + offset + "+" + length + " of " + data.length);
+    }
+    int address = addr & ADDRESS_MASK;
+    int from = offset;
+    int remaining = length;
+    while (remaining > 0) {
+      final int page = address >>> PAGE_SHIFT;
+      final int start = address & OFFSET_MASK;
+      final int count = Math.min(remaining, PAGE_SIZE - start);
+      final int flags = pageFlags[page];
+      if (flags != 0) {
+        trap(page, -1);
+      }
+      System.arraycopy(data, from, pages[page], start, count);
+      if ((flags & WATCH) != 0) {
+        for (int i = 0; i < count; i++) {
+          watchListener.watchedPageWritten(address + i);
+        }
+      }
+      address = (address + count) & ADDRESS_MASK;
+      from += count;
+      remaining -= count;
+    }
+  }
+
+  /**
+   * The slow path of a write: copies a shared page, records a clean one as
+   * dirty, and reports a write to translated code or a watched page.
+   *
+   * @param address the address written, or -1 for a bulk write of the page
+   */
+  private void trap(final int page,
+                    final int address) {
+    final int flags = pageFlags[page];
+    if ((flags & SHARED) != 0) {
+      pages[page] = pages[page].clone();
+    }
+    if ((flags & CLEAN) != 0) {
+      dirtyPages[page >>> 6] |= 1L << page;
+    }
+    pageFlags[page] &= ~(SHARED | CLEAN | CODE);
+    if ((flags & CODE) != 0) {
+      codeListener.codeWritten(page);
+    }
+    if (((flags & WATCH) != 0) && (address >= 0)) {
+      watchListener.watchedPageWritten(address);
+    }
+  }
+
+  /**
+   * Sets the listener told of writes to pages marked with
+   * {@link #setWatched(int, boolean)}.
+   */
+  void setWatchListener(final WatchListener listener) {
+    watchListener = listener;
+  }
+
+  /**
+   * Marks or unmarks a page as holding write watchpoints, so that every write
+   * to it is reported to the watch listener.
+   */
+  void setWatched(final int page,
+                  final boolean watched) {
+    if (watched) {
+      pageFlags[page] |= WATCH;
+    } else {
+      pageFlags[page] &= ~WATCH;
+    }
+  }
+
+  /**
+   * Sets the listener told of writes to pages marked with
+   * {@link #markCode(int)}.
+   */
+  void setCodeListener(final CodeListener listener) {
+    codeListener = listener;
+  }
+
+  /**
+   * Marks a page as holding translated code, so that the next write to it is
+   * reported to the code listener. The mark is cleared by that write.
+   */
+  void markCode(final int page) {
+    pageFlags[page] |= CODE;
+  }
+
+  /**
+   * Clears the translated code marks from every page.
+   */
+  void clearCode() {
+    for (int page = 0; page < PAGES; page++) {
+      pageFlags[page] &= ~CODE;
+    }
+  }
+
+  /**
+   * @return true if the page may still be shared with another memory
+   */
+  public boolean isShared(final int page) {
+    return (pageFlags[page] & SHARED) != 0;
+  }
+
+  /**
+   * @return true if the page has been written since the last checkpoint
+   */
+  public boolean isDirty(final int page) {
+    return (dirtyPages[page >>> 6] & (1L << page)) != 0;
+  }
+
+  /**
+   * Returns the set of pages written since the last checkpoint and starts a new
+   * one, marking every page clean. Call it between slices, on the thread that
+   * runs the CPU, so that no write can fall between reading and clearing the
+   * set.
+   */
+  public BitSet takeDirtyPages() {
+    final BitSet dirty = BitSet.valueOf(dirtyPages);
+    Arrays.fill(dirtyPages, 0);
+    for (int page = 0; page < PAGES; page++) {
+      pageFlags[page] |= CLEAN;
+    }
+    return dirty;
+  }
+
+  /**
+   * Returns a buffer over one page, for bulk reads such as snapshots. The
+   * buffer must not be written to.
+   */
+  ByteBuffer page(final int page) {
+    return ByteBuffer.wrap(pages[page]);
+  }
+
+  /**
+   * Returns a buffer over one page, for bulk writes such as restoring a
+   * snapshot. The page is unshared and marked dirty first, as if written.
+   */
+  ByteBuffer writablePage(final int page) {
+    if (pageFlags[page] != 0) {
+      trap(page, -1);
+    }
+    return ByteBuffer.wrap(pages[page]);
+  }
+
+  /**
+   * Returns a {@link Register} view of the byte addressed by the register plus
+   * an offset. The view reads and writes straight through to memory; it is kept
+   * for callers that still work in terms of registers, and should be avoided on
+   * hot paths in favour of {@link #read(int)} and {@link #write(int, int)}.
+   */
   public Register address(final Register register,
                           final int offset) {
-    return bytes[register.get() + offset];
+    return address(register.get() + offset);
   }
 
-  public Register address(final Register register) {
-    return address(register, 0);
+  /**
+   * Returns a {@link Register} view of the byte at the address, as
+   * {@link #address(Register, int)} does. The view of each address is created
+   * once and handed out again on later calls.
+   */
+  public MemoryRegister address(final int address) {
+    MemoryRegister[] all = views;
+    if (all == null) {
+      all = new MemoryRegister[SIZE];
+      views = all;
+    }
+    final int masked = address & ADDRESS_MASK;
+    MemoryRegister view = all[masked];
+    if (view == null) {
+      view = new MemoryRegister(this, masked);
+      all[masked] = view;
+    }
+    return view;
   }
 
-  private Register address(final int high,
-                           final int low) {
-    return bytes[(high << 8) | low];
+  public Register address(final Register register) {
+    return address(register, 0);
   }
 
   public int get(final int high,
                  final int low) {
-    return address(high, low).get();
+    return read((high << 8) | low);
   }
 
   public int get(final Register register) {
-    return address(register).get();
+    return read(register.get());
   }
 
   public void set(final int high,
                   final int low,
                   final int value) {
-    address(high, low).set(value);
+    write((high << 8) | low, value);
   }
 
   public void set(final Register register,
                   final int value) {
-    address(register).set(value);
+    write(register.get(), value);
   }
 
+  /**
+   * A byte of memory seen as a {@link Register}, reading and writing straight
+   * through to it.
+   */
   public static class MemoryRegister implements Register {
 
-    int data;
+    private final Memory memory;
+    private final int address;
+
+    public MemoryRegister(final Memory memory,
+                          final int address) {
+      this.memory = memory;
+      this.address = address & ADDRESS_MASK;
+    }
+
+    public int getAddress() {
+      return address;
+    }
 
     @Override
     public int get() {
-      return data;
+      return memory.read(address);
     }
 
     @Override
     public void set(final int data) {
-      this.data = data;
+      memory.write(address, data);
     }
 
     @Override
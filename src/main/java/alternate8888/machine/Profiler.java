@@ -0,0 +1,326 @@
+package alternate8888.machine;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+/**
+ * Counts where a CPU spends its time. Attach it with
+ * {@link CPU#setProfiler(Profiler)}; a CPU without one pays nothing.
+ *
+ * Two sets of counters are kept: executions and cycles per opcode, and
+ * executions per address. Address counts are unsigned 32-bit and wrap after
+ * 2^32 executions of one address.
+ *
+ * Alongside them the profiler follows an emulated call stack. CALL, RST and
+ * accepted interrupts enter a frame named by the address called, and RET leaves
+ * it; conditional calls and returns count only when taken. Cycles are charged
+ * to the stack they ran in, which {@link #writeCollapsedStacks(Appendable)}
+ * writes in the collapsed format read by flame graph tools. Code that leaves a
+ * routine other than by RET, such as by popping the return address and
+ * jumping, leaves the stack deeper than the program's; stacks deeper than
+ * {@link #MAX_DEPTH} keep charging the deepest frame recorded.
+ *
+ * Profiling runs on the CPU's thread; read the results when it is not running.
+ *
+ * @author Tabby Cromarty
+ */
+public final class Profiler {
+
+  /**
+   * Deepest call stack followed.
+   */
+  public static final int MAX_DEPTH = 256;
+
+  private static final byte CALL = 1;
+  private static final byte RETURN = 2;
+  private static final byte RESTART = 3;
+
+  private static final byte[] KINDS = new byte[256];
+
+  static {
+    for (int opcode = 0; opcode < 256; opcode++) {
+      if ((opcode & 0307) == 0304) {
+        // Ccc
+        KINDS[opcode] = CALL;
+      } else if ((opcode & 0307) == 0300) {
+        // Rcc
+        KINDS[opcode] = RETURN;
+      } else if ((opcode & 0307) == 0307) {
+        KINDS[opcode] = RESTART;
+      }
+    }
+    // CALL and its undocumented duplicates
+    KINDS[0315] = CALL;
+    KINDS[0335] = CALL;
+    KINDS[0355] = CALL;
+    KINDS[0375] = CALL;
+    // RET and its undocumented duplicate
+    KINDS[0311] = RETURN;
+    KINDS[0331] = RETURN;
+  }
+
+  private final long[] opcodeCounts = new long[256];
+  private final long[] opcodeCycles = new long[256];
+  private final int[] addressCounts = new int[Memory.SIZE];
+
+  // Call tree: node 0 is the root, the frame profiling started in
+  private int[] nodeParent = new int[1024];
+  private int[] nodeAddress = new int[1024];
+  private long[] nodeCycles = new long[1024];
+  private int nodes;
+
+  // Children of each node, hashed on parent and address
+  private long[] childKeys = new long[2048];
+  private int[] childNodes = new int[2048];
+
+  private final int[] stack = new int[MAX_DEPTH];
+  private int depth;
+  private int node;
+
+  public Profiler() {
+    reset();
+  }
+
+  /**
+   * Clears every counter and starts the call stack again from the root.
+   */
+  public void reset() {
+    Arrays.fill(opcodeCounts, 0);
+    Arrays.fill(opcodeCycles, 0);
+    Arrays.fill(addressCounts, 0);
+    Arrays.fill(nodeCycles, 0);
+    Arrays.fill(childKeys, -1);
+    nodes = 1;
+    nodeParent[0] = -1;
+    depth = 0;
+    node = 0;
+  }
+
+  /**
+   * Counts one executed instruction. Called by the CPU after the instruction.
+   *
+   * @param pc       address of the instruction
+   * @param cycles   clock cycles it took
+   * @param spBefore Stack Pointer before it executed
+   * @param spAfter  Stack Pointer after it executed
+   * @param pcAfter  Program Counter after it executed
+   */
+  void executed(final int pc,
+                final int opcode,
+                final int cycles,
+                final int spBefore,
+                final int spAfter,
+                final int pcAfter) {
+    opcodeCounts[opcode]++;
+    opcodeCycles[opcode] += cycles;
+    addressCounts[pc]++;
+    nodeCycles[node] += cycles;
+    switch (KINDS[opcode]) {
+      case CALL:
+        if (spAfter == ((spBefore - 2) & 0xffff)) {
+          enter(pcAfter);
+        }
+        break;
+      case RETURN:
+        if (spAfter == ((spBefore + 2) & 0xffff)) {
+          leave();
+        }
+        break;
+      case RESTART:
+        enter(pcAfter);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Counts an accepted interrupt, which executes an RST without fetching it.
+   *
+   * @param target the restart address jumped to
+   * @param cycles clock cycles it took
+   */
+  void interrupted(final int target,
+                   final int cycles) {
+    final int opcode = 0307 | target;
+    opcodeCounts[opcode]++;
+    opcodeCycles[opcode] += cycles;
+    enter(target);
+    nodeCycles[node] += cycles;
+  }
+
+  private void enter(final int address) {
+    if (depth < MAX_DEPTH) {
+      stack[depth] = node;
+      node = child(node, address);
+    }
+    depth++;
+  }
+
+  private void leave() {
+    if (depth == 0) {
+      return;
+    }
+    depth--;
+    if (depth < MAX_DEPTH) {
+      node = stack[depth];
+    }
+  }
+
+  /**
+   * Finds or adds the node for a call to the address from the given node.
+   */
+  private int child(final int parent,
+                    final int address) {
+    final long key = ((long) parent << 16) | address;
+    int slot = hash(key) & (childKeys.length - 1);
+    while (childKeys[slot] != -1) {
+      if (childKeys[slot] == key) {
+        return childNodes[slot];
+      }
+      slot = (slot + 1) & (childKeys.length - 1);
+    }
+    if (nodes == nodeParent.length) {
+      nodeParent = Arrays.copyOf(nodeParent, nodes * 2);
+      nodeAddress = Arrays.copyOf(nodeAddress, nodes * 2);
+      nodeCycles = Arrays.copyOf(nodeCycles, nodes * 2);
+    }
+    final int child = nodes++;
+    nodeParent[child] = parent;
+    nodeAddress[child] = address;
+    childKeys[slot] = key;
+    childNodes[slot] = child;
+    if ((nodes * 2) > childKeys.length) {
+      rehash();
+    }
+    return child;
+  }
+
+  private void rehash() {
+    final long[] keys = childKeys;
+    final int[] values = childNodes;
+    childKeys = new long[keys.length * 2];
+    childNodes = new int[keys.length * 2];
+    Arrays.fill(childKeys, -1);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != -1) {
+        int slot = hash(keys[i]) & (childKeys.length - 1);
+        while (childKeys[slot] != -1) {
+          slot = (slot + 1) & (childKeys.length - 1);
+        }
+        childKeys[slot] = keys[i];
+        childNodes[slot] = values[i];
+      }
+    }
+  }
+
+  private static int hash(final long key) {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  public long getOpcodeCount(final int opcode) {
+    return opcodeCounts[opcode];
+  }
+
+  public long getOpcodeCycles(final int opcode) {
+    return opcodeCycles[opcode];
+  }
+
+  /**
+   * @return the number of instructions executed at the address
+   */
+  public long getAddressCount(final int address) {
+    return Integer.toUnsignedLong(addressCounts[address & 0xffff]);
+  }
+
+  /**
+   * @return the current depth of the emulated call stack
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Writes a plain text report of the opcodes taking the most cycles and the
+   * most executed addresses, hottest first.
+   *
+   * @param limit the most lines to write in each table
+   */
+  public void writeReport(final Appendable out,
+                          final int limit) throws IOException {
+    long totalCycles = 0;
+    long totalCount = 0;
+    for (int opcode = 0; opcode < 256; opcode++) {
+      totalCycles += opcodeCycles[opcode];
+      totalCount += opcodeCounts[opcode];
+    }
+
+    out.append(String.format(Locale.ROOT, "%,d instructions, %,d cycles%n%n", totalCount, totalCycles));
+    out.append("Opcodes by cycles\n");
+    out.append("opcode         count          cycles      %\n");
+    final long[] opcodes = new long[256];
+    for (int opcode = 0; opcode < 256; opcode++) {
+      opcodes[opcode] = opcodeCycles[opcode];
+    }
+    for (final int opcode : hottest(opcodes, limit)) {
+      out.append(String.format(Locale.ROOT, "  %02Xh  %,12d  %,14d  %5.1f%n", opcode, opcodeCounts[opcode],
+                               opcodeCycles[opcode], percent(opcodeCycles[opcode], totalCycles)));
+    }
+
+    out.append("\nAddresses by executions\n");
+    out.append("address        count      %\n");
+    final long[] addresses = new long[Memory.SIZE];
+    for (int address = 0; address < Memory.SIZE; address++) {
+      addresses[address] = getAddressCount(address);
+    }
+    for (final int address : hottest(addresses, limit)) {
+      out.append(String.format(Locale.ROOT, "  %04Xh  %,12d  %5.1f%n", address, addresses[address],
+                               percent(addresses[address], totalCount)));
+    }
+  }
+
+  /**
+   * Writes the cycles spent in each call stack, one line per stack, in the
+   * collapsed format read by flame graph tools: frames from the outermost,
+   * separated by semicolons, then a space and the cycle count. Frames are named
+   * by the address called, such as "0100h"; the outermost frame, which
+   * profiling started in, is "root".
+   */
+  public void writeCollapsedStacks(final Appendable out) throws IOException {
+    final StringBuilder line = new StringBuilder();
+    for (int n = 0; n < nodes; n++) {
+      if (nodeCycles[n] == 0) {
+        continue;
+      }
+      line.setLength(0);
+      for (int frame = n; frame > 0; frame = nodeParent[frame]) {
+        line.insert(0, String.format(Locale.ROOT, ";%04Xh", nodeAddress[frame]));
+      }
+      line.insert(0, "root");
+      line.append(' ').append(nodeCycles[n]).append('\n');
+      out.append(line);
+    }
+  }
+
+  /**
+   * @return the indices of the largest non-zero values, largest first
+   */
+  private static int[] hottest(final long[] values,
+                               final int limit) {
+    return IntStream.range(0, values.length)
+        .filter(i -> values[i] != 0)
+        .boxed()
+        .sorted((a, b) -> Long.compare(values[b], values[a]))
+        .limit(limit)
+        .mapToInt(Integer::intValue)
+        .toArray();
+  }
+
+  private static double percent(final long part,
+                                final long whole) {
+    return (whole == 0) ? 0 : ((part * 100.0) / whole);
+  }
+}
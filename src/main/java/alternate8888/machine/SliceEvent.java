@@ -0,0 +1,38 @@
+package alternate8888.machine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one call of {@link CPU#run(long)}.
+ *
+ * @author Tabby Cromarty
+ */
+@Name("alternate8888.Slice")
+@Label("Execution Slice")
+@Category("Alternate 8888")
+@Description("A slice of emulated execution on one machine")
+final class SliceEvent extends Event {
+
+  /**
+   * Never committed; only asked whether the event type is enabled, so that a
+   * disabled event costs no allocation.
+   */
+  static final SliceEvent PROBE = new SliceEvent();
+
+  @Label("Machine")
+  long machine;
+
+  @Label("Cycles")
+  long cycles;
+
+  @Label("Instructions")
+  long instructions;
+
+  @Label("Halted")
+  @Description("The slice ended because the CPU halted")
+  boolean halted;
+}
@@ -0,0 +1,279 @@
+package alternate8888.machine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Saves and restores the complete state of a {@link Computer}: the CPU's
+ * registers, flags, PC, SP, interrupt flip-flop and halt state, and all 64K of
+ * memory. Attached devices are not included.
+ *
+ * A snapshot is a fixed-size binary record, big-endian:
+ *
+ * <pre>
+ * offset size
+ *      0    4  magic, "A888"
+ *      4    2  format version, currently 1
+ *      6    8  registers B, C, D, E, H, L, (unused), A
+ *     14    1  status bits
+ *     15    2  program counter
+ *     17    2  stack pointer
+ *     19    1  bit 0 interrupts enabled, bit 1 halted
+ *     20    1  instruction register (last opcode executed)
+ *     21    8  cycles executed
+ *     29 65536 memory, address 0000 first
+ * </pre>
+ *
+ * Memory is written straight from, and read straight into, the machine's own
+ * memory pages; only the 29-byte header is staged in a buffer. Every restore
+ * loads memory first and the CPU after, so that a CPU is never left with its
+ * registers restored over memory that is not. A snapshot
+ * held in a {@link ByteBuffer} can be restored into any number of machines,
+ * which is how a pool is warm-started from one booted machine.
+ *
+ * A delta holds only the memory pages written since the previous checkpoint
+ * (see {@link Memory#takeDirtyPages()}), and is applied on top of the state it
+ * was taken from:
+ *
+ * <pre>
+ * offset size
+ *      0    4  magic, "A88D"
+ *      4    2  format version, currently 1
+ *      6   23  CPU state, as in a snapshot
+ *     29   32  bitmap of pages present; bit n of byte n/8 is page n
+ *     61  256  each page present, lowest first
+ * </pre>
+ *
+ * @author Tabby Cromarty
+ */
+public final class Snapshot {
+
+  public static final int MAGIC = 0x41383838;
+  public static final int DELTA_MAGIC = 0x41383844;
+  public static final short VERSION = 1;
+
+  static final int HEADER_SIZE = 4 + 2 + CPU.STATE_SIZE;
+
+  /**
+   * Size in bytes of a snapshot.
+   */
+  public static final int SIZE = HEADER_SIZE + Memory.SIZE;
+
+  private static final int BITMAP_SIZE = Memory.PAGES / Byte.SIZE;
+
+  /**
+   * Fills one page of memory from wherever a restore is reading.
+   */
+  @FunctionalInterface
+  private interface PageReader {
+
+    void read(ByteBuffer page) throws IOException;
+  }
+
+  private Snapshot() {
+  }
+
+  /**
+   * Writes a snapshot of the machine to the channel. The machine must not be
+   * running.
+   */
+  public static void save(final Computer computer,
+                          final WritableByteChannel channel) throws IOException {
+    final Memory memory = computer.getMemory();
+    final ByteBuffer[] buffers = new ByteBuffer[1 + Memory.PAGES];
+    buffers[0] = header(computer, MAGIC, HEADER_SIZE);
+    for (int page = 0; page < Memory.PAGES; page++) {
+      buffers[1 + page] = memory.page(page);
+    }
+    write(channel, buffers);
+  }
+
+  public static void save(final Computer computer,
+                          final Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+      save(computer, channel);
+    }
+  }
+
+  /**
+   * Returns a snapshot of the machine in a new heap buffer, ready to read.
+   */
+  public static ByteBuffer save(final Computer computer) {
+    final ByteBuffer snapshot = ByteBuffer.allocate(SIZE);
+    snapshot.put(header(computer, MAGIC, HEADER_SIZE));
+    final Memory memory = computer.getMemory();
+    for (int page = 0; page < Memory.PAGES; page++) {
+      snapshot.put(memory.page(page));
+    }
+    snapshot.flip();
+    return snapshot;
+  }
+
+  /**
+   * Restores the machine from a snapshot read from the channel. The header is
+   * checked before anything is changed; if the channel ends part way through
+   * memory the machine is left partly restored.
+   *
+   * @throws IOException if the snapshot is not in a format this version reads,
+   *                     or is truncated
+   */
+  public static void restore(final Computer computer,
+                             final ReadableByteChannel channel) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(channel, header);
+    header.flip();
+    checkHeader(header, MAGIC);
+    restore(computer, header, allPages(), page -> readFully(channel, page));
+  }
+
+  public static void restore(final Computer computer,
+                             final Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      restore(computer, channel);
+    }
+  }
+
+  /**
+   * Restores the machine from a snapshot held in a buffer, as returned by
+   * {@link #save(Computer)}. The buffer's position is not changed.
+   */
+  public static void restore(final Computer computer,
+                             final ByteBuffer snapshot) throws IOException {
+    final ByteBuffer header = snapshot.duplicate();
+    if (header.remaining() < SIZE) {
+      throw new IOException("Truncated snapshot");
+    }
+    final ByteBuffer in = header.duplicate();
+    in.position(in.position() + HEADER_SIZE);
+    checkHeader(header, MAGIC);
+    restore(computer, header, allPages(), page -> {
+      in.limit(in.position() + Memory.PAGE_SIZE);
+      page.put(in);
+    });
+  }
+
+  /**
+   * Writes a delta of the machine to the channel, holding the pages written
+   * since the last checkpoint, and starts a new checkpoint. The pages are
+   * written straight from memory in one gather write. The machine must not be
+   * running.
+   *
+   * @return the number of pages written
+   */
+  public static int saveDelta(final Computer computer,
+                              final WritableByteChannel channel) throws IOException {
+    final Memory memory = computer.getMemory();
+    final BitSet dirty = memory.takeDirtyPages();
+    final ByteBuffer header = header(computer, DELTA_MAGIC, HEADER_SIZE + BITMAP_SIZE);
+    header.limit(header.capacity());
+    header.position(HEADER_SIZE);
+    header.put(Arrays.copyOf(dirty.toByteArray(), BITMAP_SIZE));
+    header.flip();
+
+    final ByteBuffer[] buffers = new ByteBuffer[1 + dirty.cardinality()];
+    buffers[0] = header;
+    int i = 1;
+    for (int page = dirty.nextSetBit(0); page >= 0; page = dirty.nextSetBit(page + 1)) {
+      buffers[i++] = memory.page(page);
+    }
+    write(channel, buffers);
+    return buffers.length - 1;
+  }
+
+  /**
+   * Applies a delta read from the channel to a machine holding the state the
+   * delta was taken from.
+   *
+   * @throws IOException if the delta is not in a format this version reads, or
+   *                     is truncated
+   */
+  public static void restoreDelta(final Computer computer,
+                                  final ReadableByteChannel channel) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + BITMAP_SIZE);
+    readFully(channel, header);
+    header.flip();
+    checkHeader(header, DELTA_MAGIC);
+    final ByteBuffer bitmap = header.duplicate();
+    bitmap.position(HEADER_SIZE);
+    restore(computer, header, BitSet.valueOf(bitmap), page -> readFully(channel, page));
+  }
+
+  /**
+   * The one restore path: loads each page present into memory, then the CPU
+   * from the header, positioned after the magic and version.
+   */
+  private static void restore(final Computer computer,
+                              final ByteBuffer header,
+                              final BitSet pages,
+                              final PageReader reader) throws IOException {
+    final Memory memory = computer.getMemory();
+    for (int page = pages.nextSetBit(0); page >= 0; page = pages.nextSetBit(page + 1)) {
+      reader.read(memory.writablePage(page));
+    }
+    computer.getCPU().restoreState(header);
+  }
+
+  private static BitSet allPages() {
+    final BitSet pages = new BitSet(Memory.PAGES);
+    pages.set(0, Memory.PAGES);
+    return pages;
+  }
+
+  private static ByteBuffer header(final Computer computer,
+                                   final int magic,
+                                   final int size) {
+    final ByteBuffer header = ByteBuffer.allocate(size);
+    header.putInt(magic);
+    header.putShort(VERSION);
+    computer.getCPU().saveState(header);
+    header.flip();
+    return header;
+  }
+
+  private static void checkHeader(final ByteBuffer header,
+                                  final int magic) throws IOException {
+    if (header.getInt() != magic) {
+      throw new IOException("Not a machine snapshot");
+    }
+    final short version = header.getShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version " + version);
+    }
+  }
+
+  /**
+   * Writes all the buffers, in one gather write where the channel supports it.
+   */
+  private static void write(final WritableByteChannel channel,
+                            final ByteBuffer[] buffers) throws IOException {
+    if (channel instanceof GatheringByteChannel) {
+      while (buffers[buffers.length - 1].hasRemaining()) {
+        ((GatheringByteChannel) channel).write(buffers);
+      }
+    } else {
+      for (final ByteBuffer buffer : buffers) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    }
+  }
+
+  private static void readFully(final ReadableByteChannel channel,
+                                final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("Truncated snapshot");
+      }
+    }
+  }
+}
@@ -40,6 +40,47 @@ public class StatusBitRegister implements Register {
    */
   private static final byte AUX_CARRY_BIT = 0x10;
 
+  private static final int SIGN_ZERO_PARITY_BITS = (SIGN_BIT | ZERO_BIT | PARITY_BIT) & 0xFF;
+
+  /**
+   * Sign, Zero and Parity bits for every possible 8-bit result, indexed by the
+   * result.
+   */
+  private static final byte[] SIGN_ZERO_PARITY = new byte[256];
+
+  /**
+   * Aux Carry after an addition, indexed by bit 3 of the first operand, the
+   * second operand and the result (see {@link #auxCarryIndex}). A carry out of
+   * bit 3 happened exactly when the operands' bit 3 pattern cannot otherwise
+   * produce the result's bit 3.
+   */
+  private static final byte[] AUX_CARRY_ADD = { 0, 0, AUX_CARRY_BIT, 0, AUX_CARRY_BIT, 0, AUX_CARRY_BIT,
+      AUX_CARRY_BIT };
+
+  /**
+   * Aux Carry after a subtraction, indexed as {@link #AUX_CARRY_ADD}. The 8080
+   * subtracts by adding the two's complement, so the bit is set when that
+   * addition carries out of bit 3, i.e. when there was no borrow.
+   */
+  private static final byte[] AUX_CARRY_SUBTRACT = { AUX_CARRY_BIT, 0, 0, 0, AUX_CARRY_BIT, AUX_CARRY_BIT,
+      AUX_CARRY_BIT, 0 };
+
+  static {
+    for (int value = 0; value < 256; value++) {
+      int parity = value ^ (value >> 4);
+      parity ^= parity >> 2;
+      parity ^= parity >> 1;
+      int flags = value & SIGN_BIT & 0xFF;
+      if (value == 0) {
+        flags |= ZERO_BIT;
+      }
+      if ((parity & 0x01) == 0) {
+        flags |= PARITY_BIT;
+      }
+      SIGN_ZERO_PARITY[value] = (byte) flags;
+    }
+  }
+
   /*
    * Register format:
    *
@@ -186,9 +227,89 @@ public class StatusBitRegister implements Register {
     toggle(AUX_CARRY_BIT);
   }
 
+  /**
+   * Replaces the bits selected by the mask with those in flags. Lets an
+   * instruction update all of the status bits it affects in a single step,
+   * typically with values from the lookup tables.
+   */
+  void assign(final int mask,
+              final int flags) {
+    status = (byte) ((status & ~mask) | (flags & mask));
+  }
+
+  /**
+   * Sets Sign, Zero and Parity from an 8-bit result, leaving the other bits
+   * unaffected.
+   */
+  public void assignSignZeroParity(final int value) {
+    assign(SIGN_ZERO_PARITY_BITS, SIGN_ZERO_PARITY[value & 0xFF]);
+  }
+
+  /**
+   * Sets Sign, Zero and Parity from an 8-bit result, and Aux Carry from a value
+   * produced by {@link #auxCarryAdd} or {@link #auxCarrySubtract}. Carry is
+   * unaffected.
+   */
+  public void assignSignZeroParityAuxCarry(final int value,
+                                           final int auxCarry) {
+    assign(SIGN_ZERO_PARITY_BITS | AUX_CARRY_BIT, SIGN_ZERO_PARITY[value & 0xFF] | auxCarry);
+  }
+
+  /**
+   * Sets all of the status bits from the result of an arithmetic or logical
+   * instruction: Sign, Zero and Parity from the 8-bit result, Aux Carry from a
+   * table value, and Carry.
+   */
+  public void assignArithmetic(final int value,
+                               final int auxCarry,
+                               final boolean carry) {
+    assign(SIGN_ZERO_PARITY_BITS | AUX_CARRY_BIT | CARRY_BIT,
+        SIGN_ZERO_PARITY[value & 0xFF] | auxCarry | (carry ? CARRY_BIT : 0));
+  }
+
+  /**
+   * @return the Sign, Zero and Parity bits for an 8-bit result
+   */
+  static int signZeroParity(final int value) {
+    return SIGN_ZERO_PARITY[value & 0xFF] & 0xFF;
+  }
+
+  /**
+   * @return the Aux Carry bit for the addition a + b = result
+   */
+  static int auxCarryAdd(final int a,
+                         final int b,
+                         final int result) {
+    return AUX_CARRY_ADD[auxCarryIndex(a, b, result)];
+  }
+
+  /**
+   * @return the Aux Carry bit for the subtraction a - b = result
+   */
+  static int auxCarrySubtract(final int a,
+                              final int b,
+                              final int result) {
+    return AUX_CARRY_SUBTRACT[auxCarryIndex(a, b, result)];
+  }
+
+  /**
+   * @return the Aux Carry bit for the logical AND of a and b. The 8080 sets it
+   *         from the OR of bit 3 of the operands.
+   */
+  static int auxCarryAnd(final int a,
+                         final int b) {
+    return ((a | b) & 0x08) != 0 ? AUX_CARRY_BIT : 0;
+  }
+
+  private static int auxCarryIndex(final int a,
+                                   final int b,
+                                   final int result) {
+    return ((a & 0x08) >> 1) | ((b & 0x08) >> 2) | ((result & 0x08) >> 3);
+  }
+
   @Override
   public int get() {
-    return status;
+    return status & 0xFF;
   }
 
   @Override
@@ -0,0 +1,308 @@
+package alternate8888.machine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records every instruction a CPU executes to a binary trace file, for
+ * post-mortems. Attach it with {@link CPU#setTracer(Tracer)}.
+ *
+ * Records are written by the CPU thread into a ring of fixed-size segments in a
+ * direct buffer allocated up front, so tracing allocates nothing per
+ * instruction. A background thread streams each segment to the file once it is
+ * full. If the writer falls a whole ring behind, the CPU waits for it rather
+ * than losing records; {@link #getStalls()} counts those waits.
+ *
+ * The budget for tracing is half the interpreter's untraced speed or better
+ * on the CPU thread, with the writer on a core of its own. A traced CPU takes
+ * a loop of its own that does little but store each record as two longs, and
+ * records are kept to 16 bytes. That budget does not stretch to the decode
+ * cache, whose untraced loop is faster still; there tracing costs 2 to 2.5x.
+ * Where the writer has to share the CPU's core, moving more than a gigabyte a
+ * second of trace costs it about a quarter of that core on top.
+ *
+ * A trace file is a header followed by one record per instruction, in the
+ * order executed, big-endian:
+ *
+ * <pre>
+ * header
+ * offset size
+ *      0    4  magic, "A8TR"
+ *      4    2  format version, currently 2
+ *      6    2  record size, currently 16
+ *
+ * record
+ * offset size
+ *      0    2  program counter, the address of the instruction
+ *      2    1  opcode
+ *      3    1  cycles from the start of the previous record's instruction to
+ *              the start of this one, 0 in the first record
+ *      4    2  operand, the bytes at PC+1 (low) and PC+2 (high) as one word;
+ *              bytes beyond the instruction's length are 0
+ *      6    1  A
+ *      7    1  status bits
+ *      8    2  BC
+ *     10    2  DE
+ *     12    2  HL
+ *     14    2  SP
+ * </pre>
+ *
+ * Registers are recorded as they were before the instruction executed. The
+ * instruction's length follows from its opcode. Cycle counts are kept as
+ * deltas to keep records small; summing them gives each instruction's start
+ * relative to the first record. A delta includes the cycles of any interrupt
+ * accepted since the previous instruction, and saturates at 255, which only a
+ * change to the CPU's cycle count made between instructions, such as restoring
+ * a snapshot, can reach. An interrupt has no record of its own; the next
+ * record is the first instruction of the handler.
+ *
+ * @author Tabby Cromarty
+ */
+public final class Tracer implements Closeable {
+
+  public static final int MAGIC = 0x41385452;
+  public static final short VERSION = 2;
+
+  /**
+   * Size in bytes of one record.
+   */
+  public static final int RECORD_SIZE = 16;
+
+  static final int HEADER_SIZE = 8;
+
+  /**
+   * Records in a segment by default, 64K of trace.
+   */
+  public static final int DEFAULT_SEGMENT_RECORDS = 4096;
+
+  /**
+   * Segments in the ring by default.
+   */
+  public static final int DEFAULT_SEGMENTS = 64;
+
+  private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private final FileChannel channel;
+  private final ByteBuffer ring;
+  private final ByteBuffer[] segmentViews;
+  private final int[] segmentRecords;
+  private final int segmentSize;
+  private final int segmentCount;
+  private final Thread writer;
+
+  // Owned by the CPU thread
+  private int position;
+  private int segmentEnd;
+  private long stalls;
+  private long records;
+  private long lastCycles = -1;
+
+  /**
+   * Segments filled by the CPU, and segments written to the file. The ring is
+   * full when the two are a whole ring apart.
+   */
+  private volatile long published;
+  private volatile long drained;
+
+  private volatile boolean closing;
+  private volatile IOException error;
+  private volatile Thread producer;
+
+  public Tracer(final Path file) throws IOException {
+    this(file, DEFAULT_SEGMENT_RECORDS, DEFAULT_SEGMENTS);
+  }
+
+  /**
+   * Creates or truncates the trace file and starts the writer thread.
+   *
+   * @param file           the trace file
+   * @param segmentRecords records in each segment, the unit of writing
+   * @param segments       segments in the ring
+   */
+  public Tracer(final Path file,
+                final int segmentRecords,
+                final int segments) throws IOException {
+    if ((segmentRecords <= 0) || (segments < 2)
+        || (((long) segmentRecords * segments * RECORD_SIZE) > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Invalid trace ring: " + segments + " x " + segmentRecords);
+    }
+    this.segmentSize = segmentRecords * RECORD_SIZE;
+    this.segmentCount = segments;
+    this.ring = ByteBuffer.allocateDirect(segmentSize * segments);
+    this.segmentViews = new ByteBuffer[segments];
+    this.segmentRecords = new int[segments];
+    for (int i = 0; i < segments; i++) {
+      final ByteBuffer view = ring.duplicate();
+      view.position(i * segmentSize).limit((i + 1) * segmentSize);
+      segmentViews[i] = view.slice();
+    }
+    this.segmentEnd = segmentSize;
+
+    this.channel = FileChannel.open(file,
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING);
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).flip();
+    try {
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+
+    this.writer = new Thread(this::drain, "trace-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Appends one record. Called by the CPU, on its own thread, before each
+   * instruction.
+   */
+  void record(final long cycles,
+              final int pc,
+              final int opcode,
+              final int operand,
+              final int accumulator,
+              final int status,
+              final int bc,
+              final int de,
+              final int hl,
+              final int sp) {
+    final long elapsed = cycles - lastCycles;
+    final long delta = (lastCycles < 0) ? 0 : ((elapsed >= 0) && (elapsed < 0xff)) ? elapsed : 0xff;
+    lastCycles = cycles;
+    // Two long stores rather than one store per field; the fields are shifted
+    // so that the big-endian longs lay out as documented above.
+    final ByteBuffer buffer = ring;
+    final int at = position;
+    buffer.putLong(at, ((long) pc << 48)
+                       | ((long) opcode << 40)
+                       | (delta << 32)
+                       | ((long) operand << 16)
+                       | (accumulator << 8)
+                       | status);
+    buffer.putLong(at + 8, ((long) bc << 48)
+                           | ((long) de << 32)
+                           | ((long) hl << 16)
+                           | sp);
+    position = at + RECORD_SIZE;
+    if (position == segmentEnd) {
+      publish();
+    }
+  }
+
+  /**
+   * Hands the current segment to the writer and moves on to the next one,
+   * waiting for the writer if the ring is full.
+   */
+  private void publish() {
+    final long segment = published;
+    final int index = (int) (segment % segmentCount);
+    final int count = (position - (index * segmentSize)) / RECORD_SIZE;
+    segmentRecords[index] = count;
+    records += count;
+    published = segment + 1;
+    LockSupport.unpark(writer);
+
+    while (((segment + 1) - drained) >= segmentCount) {
+      final IOException failure = error;
+      if (failure != null) {
+        throw new UncheckedIOException("Trace writer failed", failure);
+      }
+      stalls++;
+      producer = Thread.currentThread();
+      LockSupport.parkNanos(this, WAIT_NANOS);
+    }
+    final int next = (int) ((segment + 1) % segmentCount);
+    position = next * segmentSize;
+    segmentEnd = position + segmentSize;
+  }
+
+  private void drain() {
+    try {
+      while (true) {
+        final long segment = drained;
+        if (segment < published) {
+          final int index = (int) (segment % segmentCount);
+          final ByteBuffer view = segmentViews[index];
+          view.clear().limit(segmentRecords[index] * RECORD_SIZE);
+          while (view.hasRemaining()) {
+            channel.write(view);
+          }
+          drained = segment + 1;
+          final Thread waiting = producer;
+          if (waiting != null) {
+            LockSupport.unpark(waiting);
+          }
+        } else if (closing) {
+          break;
+        } else {
+          LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+        }
+      }
+    } catch (final IOException e) {
+      error = e;
+      final Thread waiting = producer;
+      if (waiting != null) {
+        LockSupport.unpark(waiting);
+      }
+    }
+  }
+
+  /**
+   * @return the number of records written to the file or waiting in full
+   *         segments; records in the segment being filled are not counted
+   */
+  public long getRecords() {
+    return records;
+  }
+
+  /**
+   * @return the number of times the CPU waited for the writer to free a segment
+   */
+  public long getStalls() {
+    return stalls;
+  }
+
+  /**
+   * Writes out the records still in the ring and closes the file. Call it on
+   * the thread that ran the CPU, or after that thread has stopped, and not
+   * while the tracer is attached to a running CPU.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closing) {
+      return;
+    }
+    final int index = (int) (published % segmentCount);
+    if (position > (index * segmentSize)) {
+      segmentRecords[index] = (position - (index * segmentSize)) / RECORD_SIZE;
+      records += segmentRecords[index];
+      published++;
+    }
+    closing = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing the trace", e);
+    } finally {
+      channel.close();
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+}
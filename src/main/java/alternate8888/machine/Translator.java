@@ -0,0 +1,636 @@
+package alternate8888.machine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup.ClassOption;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translates hot basic blocks of 8080 code into JVM bytecode.
+ *
+ * A basic block is a run of straight-line instructions ending at the first
+ * jump, call, return, RST, PCHL, HLT or EI, or after
+ * {@link #MAX_BLOCK_INSTRUCTIONS}. Each address the CPU starts a block from
+ * is counted, and once it has been entered {@link #COMPILE_THRESHOLD} times
+ * the block there is translated into a hidden class. The class holds the
+ * CPU and each instruction's handler in static final fields, so HotSpot sees
+ * them as constants and can inline the handlers, and with them the register
+ * operations, into one compiled method with no fetch or decode.
+ *
+ * Pages holding translated code are marked in {@link Memory}, and the first
+ * write to one drops every block on that page. A block that writes into its
+ * own code stops after the write, so the next instruction is decoded afresh.
+ * Each time a write drops blocks, the count needed to translate a block
+ * starting on any page they covered doubles, up to {@link #MAX_BACKOFF} times,
+ * so that code sharing a page with data that is written often settles into
+ * being interpreted rather than defining a new class every few dozen entries.
+ *
+ * Interrupts are accepted between blocks rather than between instructions.
+ *
+ * @author Tabby Cromarty
+ */
+final class Translator {
+
+  /**
+   * Number of times a block must be entered before it is translated.
+   */
+  static final int COMPILE_THRESHOLD = 32;
+
+  /**
+   * Most times the threshold of a page is doubled for its blocks being
+   * dropped.
+   */
+  static final int MAX_BACKOFF = 10;
+
+  /**
+   * Longest block translated, in instructions.
+   */
+  static final int MAX_BLOCK_INSTRUCTIONS = 64;
+
+  private static final String CPU_CLASS = "alternate8888/machine/CPU";
+  private static final String OPERATION_CLASS = CPU_CLASS + "$Operation";
+  private static final String BLOCK_CLASS = CPU_CLASS + "$Block";
+
+  /**
+   * Opcodes after which the CPU may continue anywhere other than the next
+   * instruction, or after which interrupts must be checked. IN and OUT are
+   * among them because a device may move the Program Counter.
+   */
+  private static final boolean[] ENDS_BLOCK = new boolean[256];
+
+  /**
+   * Opcodes that can write to memory, after which a block must check whether
+   * it has overwritten its own code.
+   */
+  private static final boolean[] WRITES_MEMORY = new boolean[256];
+
+  static {
+    for (int opcode = 0; opcode < 256; opcode++) {
+      final int low = opcode & 0307;
+      ENDS_BLOCK[opcode] = (opcode >= 0300) && ((low == 0300) || (low == 0302) || (low == 0304) || (low == 0307));
+    }
+    for (final int opcode : new int[] { 0303, 0313, 0311, 0331, 0315, 0335, 0355, 0375, 0351, 0166, 0373, 0333, 0323 }) {
+      ENDS_BLOCK[opcode] = true;
+    }
+    for (int src = 0; src < 8; src++) {
+      WRITES_MEMORY[0160 | src] = src != 6;
+    }
+    for (final int opcode : new int[] { 0002, 0022, 0042, 0062, 0064, 0065, 0066, 0305, 0325, 0345, 0365, 0343 }) {
+      WRITES_MEMORY[opcode] = true;
+    }
+  }
+
+  private final CPU cpu;
+  private final Memory ram;
+  private final MethodHandles.Lookup lookup;
+  private final Object[] operations;
+
+  private final CompiledBlock[] blocks = new CompiledBlock[Memory.SIZE];
+  private final char[] heat = new char[Memory.SIZE];
+  private final byte[] pageBackoffs = new byte[Memory.PAGES];
+  private final int[][] pageBlocks = new int[Memory.PAGES][];
+  private final int[] pageBlockCounts = new int[Memory.PAGES];
+  private final byte[] blockLastPages = new byte[Memory.SIZE];
+
+  private boolean available = true;
+  private long translated;
+  private long invalidated;
+
+  /**
+   * @param cpu        the CPU to translate for
+   * @param ram        its memory
+   * @param lookup     a lookup in {@link CPU} with private access, used to
+   *                   define the blocks as its nestmates
+   * @param operations the CPU's dispatch table, indexed by opcode
+   */
+  Translator(final CPU cpu,
+             final Memory ram,
+             final MethodHandles.Lookup lookup,
+             final Object[] operations) {
+    this.cpu = cpu;
+    this.ram = ram;
+    this.lookup = lookup;
+    this.operations = operations;
+  }
+
+  /**
+   * Returns the translated block starting at the address, translating it if it
+   * has become hot.
+   *
+   * @return the block, or null if the instruction should be interpreted
+   */
+  CompiledBlock lookup(final int address) {
+    final CompiledBlock block = blocks[address];
+    if ((block != null) || !available || (++heat[address] < getThreshold(address))) {
+      return block;
+    }
+    return translate(address);
+  }
+
+  /**
+   * Drops every block with code on the page, and removes each from the lists
+   * of the other pages it covers.
+   */
+  void invalidate(final int page) {
+    final int[] starts = pageBlocks[page];
+    final int count = pageBlockCounts[page];
+    pageBlockCounts[page] = 0;
+    final byte backoff = (byte) Math.min(pageBackoffs[page] + 1, MAX_BACKOFF);
+    for (int i = 0; i < count; i++) {
+      final int start = starts[i];
+      if (blocks[start] == null) {
+        continue;
+      }
+      blocks[start] = null;
+      invalidated++;
+      final int lastPage = blockLastPages[start] & 0xff;
+      for (int other = start >>> 8; ; other = (other + 1) & 0xff) {
+        if (other != page) {
+          removeBlockFromPage(other, start);
+        }
+        // Back off every page of the block, so that none of its instructions
+        // is translated sooner as the start of a block of its own
+        pageBackoffs[other] = (byte) Math.max(pageBackoffs[other], backoff);
+        if (other == lastPage) {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return false if translation has failed and the CPU is interpreting
+   */
+  boolean isAvailable() {
+    return available;
+  }
+
+  /**
+   * Stops translating, as when the JVM refuses to define a block. Blocks
+   * already translated are not dropped; the CPU discards the translator at its
+   * next slice.
+   */
+  void disable() {
+    available = false;
+  }
+
+  /**
+   * @return the number of times the block at the address must be entered
+   *         before it is translated
+   */
+  int getThreshold(final int address) {
+    return COMPILE_THRESHOLD << pageBackoffs[address >>> 8];
+  }
+
+  long getTranslatedCount() {
+    return translated;
+  }
+
+  long getInvalidatedCount() {
+    return invalidated;
+  }
+
+  /**
+   * @return the number of blocks listed with code on the page
+   */
+  int getPageBlockCount(final int page) {
+    return pageBlockCounts[page];
+  }
+
+  private CompiledBlock translate(final int start) {
+    final int[] opcodes = new int[MAX_BLOCK_INSTRUCTIONS];
+    final int[] operands = new int[MAX_BLOCK_INSTRUCTIONS];
+    int count = 0;
+    int address = start;
+    int opcode;
+    do {
+      opcode = ram.read(address);
+      opcodes[count] = opcode;
+      operands[count] = operand(address, CPU.LENGTHS[opcode]);
+      count++;
+      // Interpreted instructions inside the block start counting afresh, so
+      // that they are not translated as blocks of their own
+      heat[address] = 0;
+      address = (address + CPU.LENGTHS[opcode]) & 0xffff;
+    } while (!ENDS_BLOCK[opcode] && (count < MAX_BLOCK_INSTRUCTIONS));
+
+    final CompiledBlock block;
+    try {
+      block = define(start, Arrays.copyOf(opcodes, count), Arrays.copyOf(operands, count));
+    } catch (final ReflectiveOperationException | RuntimeException | LinkageError e) {
+      disable();
+      return null;
+    }
+    blocks[start] = block;
+    translated++;
+    final int lastByte = (address - 1) & 0xffff;
+    blockLastPages[start] = (byte) (lastByte >>> 8);
+    for (int page = start >>> 8; ; page = (page + 1) & 0xff) {
+      addBlockToPage(page, start);
+      if (page == (lastByte >>> 8)) {
+        break;
+      }
+    }
+    return block;
+  }
+
+  private int operand(final int address,
+                      final int length) {
+    switch (length) {
+      case 1:
+        return 0;
+      case 2:
+        return ram.read(address + 1);
+      default:
+        return ram.read(address + 1) | (ram.read(address + 2) << 8);
+    }
+  }
+
+  private void addBlockToPage(final int page,
+                              final int start) {
+    int[] starts = pageBlocks[page];
+    if (starts == null) {
+      starts = new int[4];
+    } else if (pageBlockCounts[page] == starts.length) {
+      starts = Arrays.copyOf(starts, starts.length * 2);
+    }
+    starts[pageBlockCounts[page]++] = start;
+    pageBlocks[page] = starts;
+    ram.markCode(page);
+  }
+
+  private void removeBlockFromPage(final int page,
+                                   final int start) {
+    final int[] starts = pageBlocks[page];
+    for (int i = 0; i < pageBlockCounts[page]; i++) {
+      if (starts[i] == start) {
+        starts[i] = starts[--pageBlockCounts[page]];
+        return;
+      }
+    }
+  }
+
+  /**
+   * Generates, defines and instantiates the hidden class for a block.
+   */
+  private CompiledBlock define(final int start,
+                               final int[] opcodes,
+                               final int[] operands) throws ReflectiveOperationException {
+    final ClassAssembler assembler = new ClassAssembler();
+
+    // One static field per distinct handler, and the CPU in field 0
+    final Map<Integer, Integer> fields = new HashMap<>();
+    final Object[] data = new Object[opcodes.length + 1];
+    data[0] = cpu;
+    for (final int opcode : opcodes) {
+      if (!fields.containsKey(opcode)) {
+        fields.put(opcode, fields.size() + 1);
+        data[fields.size()] = operations[opcode];
+      }
+    }
+
+    final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    int address = start;
+    int cycles = 0;
+    for (int i = 0; i < opcodes.length; i++) {
+      final int opcode = opcodes[i];
+      address = (address + CPU.LENGTHS[opcode]) & 0xffff;
+      cycles += CPU.CYCLES[opcode];
+      final boolean last = i == (opcodes.length - 1);
+      if (last) {
+        assembler.setCpuField(code, "programCounter", address);
+      }
+      assembler.getStatic(code, "op" + fields.get(opcode), "L" + OPERATION_CLASS + ";");
+      assembler.pushInt(code, operands[i]);
+      assembler.invokeInterface(code, OPERATION_CLASS, "execute", "(I)V", 2);
+      if (WRITES_MEMORY[opcode] && !last) {
+        // if (cpu.codeModified) { exit after this instruction }
+        final ByteArrayOutputStream exit = new ByteArrayOutputStream();
+        assembler.setCpuField(exit, "programCounter", address);
+        assembler.exit(exit, opcode, cycles, i + 1);
+        assembler.getStatic(code, "cpu", "L" + CPU_CLASS + ";");
+        assembler.getField(code, CPU_CLASS, "codeModified", "Z");
+        code.write(0x99); // ifeq
+        final int offset = 3 + exit.size();
+        code.write(offset >> 8);
+        code.write(offset);
+        code.write(exit.toByteArray(), 0, exit.size());
+      }
+    }
+    assembler.exit(code, opcodes[opcodes.length - 1], cycles, opcodes.length);
+
+    final byte[] bytes = assembler.assemble(fields.size(), code.toByteArray());
+    final MethodHandles.Lookup block = lookup.defineHiddenClassWithClassData(bytes, Arrays.copyOf(data, fields.size() + 1),
+                                                                             true, ClassOption.NESTMATE);
+    try {
+      return (CompiledBlock) block.findConstructor(block.lookupClass(), MethodType.methodType(void.class)).invoke();
+    } catch (final ReflectiveOperationException | RuntimeException | Error e) {
+      throw e;
+    } catch (final Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Just enough of a class file writer for a block class: a constant pool, the
+   * static fields, a constructor, a static initializer that loads the fields
+   * from the class data, and the execute method. Version 49 class files are
+   * verified without stack map frames, which keeps the branches simple.
+   */
+  private static final class ClassAssembler {
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    void pushInt(final ByteArrayOutputStream code,
+                 final int value) {
+      if ((value >= -1) && (value <= 5)) {
+        code.write(0x03 + value); // iconst
+      } else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)) {
+        code.write(0x10); // bipush
+        code.write(value);
+      } else if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE)) {
+        code.write(0x11); // sipush
+        code.write(value >> 8);
+        code.write(value);
+      } else {
+        code.write(0x13); // ldc_w
+        writeShort(code, integer(value));
+      }
+    }
+
+    void getStatic(final ByteArrayOutputStream code,
+                   final String name,
+                   final String descriptor) {
+      code.write(0xb2);
+      writeShort(code, member(9, BLOCK_CLASS, name, descriptor));
+    }
+
+    void getField(final ByteArrayOutputStream code,
+                  final String owner,
+                  final String name,
+                  final String descriptor) {
+      code.write(0xb4);
+      writeShort(code, member(9, owner, name, descriptor));
+    }
+
+    void invokeInterface(final ByteArrayOutputStream code,
+                         final String owner,
+                         final String name,
+                         final String descriptor,
+                         final int argumentSlots) {
+      code.write(0xb9);
+      writeShort(code, member(11, owner, name, descriptor));
+      code.write(argumentSlots);
+      code.write(0);
+    }
+
+    /**
+     * cpu.name = value, for an int field of the CPU.
+     */
+    void setCpuField(final ByteArrayOutputStream code,
+                     final String name,
+                     final int value) {
+      getStatic(code, "cpu", "L" + CPU_CLASS + ";");
+      pushInt(code, value);
+      code.write(0xb5); // putfield
+      writeShort(code, member(9, CPU_CLASS, name, "I"));
+    }
+
+    /**
+     * Records the last opcode executed, adds the block's cycles and
+     * instructions so far and returns.
+     */
+    void exit(final ByteArrayOutputStream code,
+              final int opcode,
+              final int cycles,
+              final int instructions) {
+      setCpuField(code, "instructionRegister", opcode);
+      addToCpuCounter(code, "cycles", cycles);
+      addToCpuCounter(code, "instructions", instructions);
+      code.write(0xb1); // return
+    }
+
+    /**
+     * cpu.name += value, for a long field of the CPU.
+     */
+    private void addToCpuCounter(final ByteArrayOutputStream code,
+                                 final String name,
+                                 final int value) {
+      getStatic(code, "cpu", "L" + CPU_CLASS + ";");
+      code.write(0x59); // dup
+      getField(code, CPU_CLASS, name, "J");
+      pushInt(code, value);
+      code.write(0x85); // i2l
+      code.write(0x61); // ladd
+      code.write(0xb5); // putfield
+      writeShort(code, member(9, CPU_CLASS, name, "J"));
+    }
+
+    /**
+     * Writes the class file, with {@code operationFields} handler fields
+     * op1..opN and the given body for execute().
+     */
+    byte[] assemble(final int operationFields,
+                    final byte[] executeCode) {
+      final int thisClass = classRef(BLOCK_CLASS);
+      final int superClass = classRef("java/lang/Object");
+      final int blockInterface = classRef("alternate8888/machine/CompiledBlock");
+      final int codeName = utf8("Code");
+
+      // static initializer: Object[] data = classData(lookup(), "_", Object[].class)
+      final ByteArrayOutputStream clinit = new ByteArrayOutputStream();
+      clinit.write(0xb8); // invokestatic
+      writeShort(clinit, member(10, "java/lang/invoke/MethodHandles", "lookup",
+                                "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+      clinit.write(0x13); // ldc_w
+      writeShort(clinit, string("_"));
+      clinit.write(0x13);
+      writeShort(clinit, classRef("[Ljava/lang/Object;"));
+      clinit.write(0xb8);
+      writeShort(clinit, member(10, "java/lang/invoke/MethodHandles", "classData",
+                                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)"
+                                    + "Ljava/lang/Object;"));
+      clinit.write(0xc0); // checkcast
+      writeShort(clinit, classRef("[Ljava/lang/Object;"));
+      clinit.write(0x4b); // astore_0
+      for (int field = 0; field <= operationFields; field++) {
+        final String type = (field == 0) ? CPU_CLASS : OPERATION_CLASS;
+        clinit.write(0x2a); // aload_0
+        pushInt(clinit, field);
+        clinit.write(0x32); // aaload
+        clinit.write(0xc0);
+        writeShort(clinit, classRef(type));
+        clinit.write(0xb3); // putstatic
+        writeShort(clinit, member(9, BLOCK_CLASS, fieldName(field), "L" + type + ";"));
+      }
+      clinit.write(0xb1);
+
+      final byte[] init = new byte[5];
+      init[0] = 0x2a; // aload_0
+      init[1] = (byte) 0xb7; // invokespecial
+      final int objectInit = member(10, "java/lang/Object", "<init>", "()V");
+      init[2] = (byte) (objectInit >> 8);
+      init[3] = (byte) objectInit;
+      init[4] = (byte) 0xb1;
+
+      final int[] fieldNames = new int[operationFields + 1];
+      final int[] fieldTypes = new int[operationFields + 1];
+      for (int field = 0; field <= operationFields; field++) {
+        fieldNames[field] = utf8(fieldName(field));
+        fieldTypes[field] = utf8("L" + ((field == 0) ? CPU_CLASS : OPERATION_CLASS) + ";");
+      }
+      final int initName = utf8("<init>");
+      final int clinitName = utf8("<clinit>");
+      final int executeName = utf8("execute");
+      final int voidDescriptor = utf8("()V");
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      try {
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(VERSION);
+        out.writeShort(poolCount);
+        pool.writeTo(out);
+        out.writeShort(0x0030); // final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(blockInterface);
+
+        out.writeShort(operationFields + 1);
+        for (int field = 0; field <= operationFields; field++) {
+          out.writeShort(0x001a); // private static final
+          out.writeShort(fieldNames[field]);
+          out.writeShort(fieldTypes[field]);
+          out.writeShort(0);
+        }
+
+        out.writeShort(3);
+        writeMethod(out, 0x0001, initName, voidDescriptor, codeName, 1, 1, init);
+        writeMethod(out, 0x0008, clinitName, voidDescriptor, codeName, 3, 1, clinit.toByteArray());
+        writeMethod(out, 0x0001, executeName, voidDescriptor, codeName, 5, 1, executeCode);
+        out.writeShort(0);
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return bytes.toByteArray();
+    }
+
+    private static String fieldName(final int field) {
+      return (field == 0) ? "cpu" : ("op" + field);
+    }
+
+    private static void writeMethod(final DataOutputStream out,
+                                    final int access,
+                                    final int name,
+                                    final int descriptor,
+                                    final int codeName,
+                                    final int maxStack,
+                                    final int maxLocals,
+                                    final byte[] code) throws IOException {
+      out.writeShort(access);
+      out.writeShort(name);
+      out.writeShort(descriptor);
+      out.writeShort(1);
+      out.writeShort(codeName);
+      out.writeInt(12 + code.length);
+      out.writeShort(maxStack);
+      out.writeShort(maxLocals);
+      out.writeInt(code.length);
+      out.write(code);
+      out.writeShort(0); // exception table
+      out.writeShort(0); // attributes
+    }
+
+    private static void writeShort(final ByteArrayOutputStream out,
+                                   final int value) {
+      out.write(value >> 8);
+      out.write(value);
+    }
+
+    private int utf8(final String value) {
+      return constant("U" + value, () -> {
+        poolOut.writeByte(1);
+        poolOut.writeUTF(value);
+      });
+    }
+
+    private int classRef(final String name) {
+      final int index = utf8(name);
+      return constant("C" + name, () -> {
+        poolOut.writeByte(7);
+        poolOut.writeShort(index);
+      });
+    }
+
+    private int string(final String value) {
+      final int index = utf8(value);
+      return constant("S" + value, () -> {
+        poolOut.writeByte(8);
+        poolOut.writeShort(index);
+      });
+    }
+
+    private int integer(final int value) {
+      return constant("I" + value, () -> {
+        poolOut.writeByte(3);
+        poolOut.writeInt(value);
+      });
+    }
+
+    /**
+     * A field (tag 9), method (10) or interface method (11) reference.
+     */
+    private int member(final int tag,
+                       final String owner,
+                       final String name,
+                       final String descriptor) {
+      final int ownerIndex = classRef(owner);
+      final int nameIndex = utf8(name);
+      final int descriptorIndex = utf8(descriptor);
+      final int nameAndType = constant("N" + name + ":" + descriptor, () -> {
+        poolOut.writeByte(12);
+        poolOut.writeShort(nameIndex);
+        poolOut.writeShort(descriptorIndex);
+      });
+      return constant(tag + owner + "." + name + ":" + descriptor, () -> {
+        poolOut.writeByte(tag);
+        poolOut.writeShort(ownerIndex);
+        poolOut.writeShort(nameAndType);
+      });
+    }
+
+    @FunctionalInterface
+    private interface ConstantWriter {
+
+      void write() throws IOException;
+    }
+
+    private int constant(final String key,
+                         final ConstantWriter writer) {
+      final Integer existing = constants.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      try {
+        writer.write();
+      } catch (final IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      constants.put(key, poolCount);
+      return poolCount++;
+    }
+  }
+}
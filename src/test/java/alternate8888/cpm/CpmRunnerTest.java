@@ -0,0 +1,115 @@
+package alternate8888.cpm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import alternate8888.machine.Memory;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class CpmRunnerTest {
+
+  private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+  private final CpmRunner runner = new CpmRunner(console);
+
+  private static byte[] program(final int... code) {
+    final byte[] bytes = new byte[code.length];
+    for (int i = 0; i < code.length; i++) {
+      bytes[i] = (byte) code[i];
+    }
+    return bytes;
+  }
+
+  private String output() {
+    return new String(console.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testPrintStringAndCharacterThenReset() throws IOException {
+    // 0100h: LHLD 0006h; SPHL; LXI D,msg; MVI C,9; CALL 5; MVI E,'!'; MVI C,2; CALL 5; MVI C,0; CALL 5
+    // msg: "HI$"
+    runner.load(program(0052, 0x06, 0x00, 0371, 0021, 0x18, 0x01, 0016, 9, 0315, 0x05, 0x00, 0036, '!', 0016, 2,
+                        0315, 0x05, 0x00, 0016, 0, 0315, 0x05, 0x00, 'H', 'I', '$'));
+    final CpmRunner.Result result = runner.run();
+    assertEquals("HI!", output());
+    assertTrue(runner.getComputer().getCPU().isHalted());
+    // 10 instructions, JMP, OUT and RET for two BDOS calls, JMP and OUT for
+    // the reset, and the warm boot HLT
+    assertEquals(10 + (2 * 3) + 2 + 1, result.getInstructions());
+    assertTrue(result.getCycles() > 0);
+  }
+
+  @Test
+  public void testReturnToCcpEndsProgram() throws IOException {
+    // 0100h: MVI E,'x'; MVI C,2; CALL 5; RET
+    runner.load(program(0036, 'x', 0016, 2, 0315, 0x05, 0x00, 0311));
+    final CpmRunner.Result result = runner.run();
+    assertEquals("x", output());
+    assertEquals(4 + 2 + 1 + 1, result.getInstructions());
+  }
+
+  @Test
+  public void testTranslatedRunMatches() throws IOException {
+    // 0100h: MVI B,0; loop: MVI E,'.'; MVI C,2; PUSH B; CALL 5; POP B; DCR B; JNZ loop; RET
+    final byte[] program = program(0006, 0, 0036, '.', 0016, 2, 0305, 0315, 0x05, 0x00, 0301, 0005, 0302, 0x02, 0x01,
+                                   0311);
+    runner.getComputer().getCPU().setTranslationEnabled(true);
+    runner.load(program);
+    final CpmRunner.Result translated = runner.run();
+    assertEquals(256, console.size());
+
+    final CpmRunner interpreter = new CpmRunner(new ByteArrayOutputStream());
+    interpreter.load(program);
+    final CpmRunner.Result interpreted = interpreter.run();
+    assertEquals(interpreted.getInstructions(), translated.getInstructions());
+    assertEquals(interpreted.getCycles(), translated.getCycles());
+  }
+
+  @Test
+  public void testTranslatedResetEndsProgram() throws IOException {
+    // 0100h: MVI B,64; loop: MVI E,'.'; MVI C,2; PUSH B; CALL 5; POP B; DCR B; JNZ loop; MVI C,0; CALL 5
+    // 0114h: MVI E,'X'; MVI C,2; CALL 5; RET
+    // The loop makes the BDOS stub hot enough to translate before the reset
+    runner.getComputer().getCPU().setTranslationEnabled(true);
+    runner.load(program(0006, 64, 0036, '.', 0016, 2, 0305, 0315, 0x05, 0x00, 0301, 0005, 0302, 0x02, 0x01, 0016, 0,
+                        0315, 0x05, 0x00, 0036, 'X', 0016, 2, 0315, 0x05, 0x00, 0311));
+    runner.run();
+    assertTrue(runner.getComputer().getCPU().getTranslatedBlocks() > 0);
+    assertTrue(runner.getComputer().getCPU().isHalted());
+    assertEquals(new String(new char[64]).replace('\0', '.'), output());
+  }
+
+  @Test
+  public void testPrintStringStopsAfterAllOfMemory() throws IOException {
+    // 0100h: LXI D,0200h; MVI C,9; CALL 5; RET, with no '$' anywhere in memory
+    runner.load(program(0021, 0x00, 0x02, 0016, 9, 0315, 0x05, 0x00, 0311));
+    runner.run();
+    assertEquals(Memory.SIZE, console.size());
+  }
+
+  @Test
+  public void testConsoleFlushedWhenProgramEnds() throws IOException {
+    final int[] flushes = new int[1];
+    final CpmRunner counted = new CpmRunner(new FilterOutputStream(console) {
+
+      @Override
+      public void flush() throws IOException {
+        flushes[0]++;
+        super.flush();
+      }
+    });
+    // 0100h: MVI E,'a'; MVI C,2; CALL 5; MVI E,'b'; MVI C,2; CALL 5; RET
+    counted.load(program(0036, 'a', 0016, 2, 0315, 0x05, 0x00, 0036, 'b', 0016, 2, 0315, 0x05, 0x00, 0311));
+    counted.run();
+    assertEquals("ab", output());
+    assertEquals(1, flushes[0]);
+  }
+}
@@ -0,0 +1,132 @@
+package alternate8888.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class DiskControllerTest {
+
+  private final DiskController controller = new DiskController(2);
+
+  private Path image;
+
+  @Before
+  public void createImage() throws IOException {
+    image = Files.createTempFile("disk", ".dsk");
+    final byte[] bytes = new byte[DiskDrive.IMAGE_SIZE];
+    bytes[(((2 * DiskDrive.SECTORS) + 5) * DiskDrive.SECTOR_SIZE) + 1] = 0x42;
+    Files.write(image, bytes);
+  }
+
+  @After
+  public void deleteImage() throws IOException {
+    controller.close();
+    Files.deleteIfExists(image);
+  }
+
+  @Test
+  public void testNoDriveSelected() {
+    assertEquals(0xFF, controller.in(0x08));
+    controller.out(0x08, 0x00);
+    assertEquals("Empty drive cannot be selected", 0xFF, controller.in(0x08));
+  }
+
+  @Test
+  public void testStatusAndStepping() throws IOException {
+    controller.getDrive(0).mount(image, false);
+    controller.out(0x08, 0x00);
+    assertEquals("Head can move, track 0", 0xA5, controller.in(0x08));
+
+    controller.out(0x09, 0x04);
+    assertEquals("Head loaded, data available", 0x21, controller.in(0x08));
+
+    controller.out(0x09, 0x01);
+    assertEquals("Off track 0", 0x61, controller.in(0x08));
+    controller.out(0x09, 0x02);
+    controller.out(0x09, 0x02);
+    assertEquals("Cannot step out past track 0", 0x21, controller.in(0x08));
+
+    controller.out(0x08, 0x80);
+    assertEquals(0xFF, controller.in(0x08));
+  }
+
+  @Test
+  public void testSectorPosition() throws IOException {
+    controller.getDrive(0).mount(image, true);
+    controller.out(0x08, 0x00);
+    assertEquals("Head not loaded", 0xFF, controller.in(0x09));
+    controller.out(0x09, 0x04);
+    assertEquals("Sector 1, sector true", 0xC2, controller.in(0x09));
+    assertEquals("Sector 1, past start", 0xC3, controller.in(0x09));
+    assertEquals("Sector 2, sector true", 0xC4, controller.in(0x09));
+  }
+
+  @Test
+  public void testReadSector() throws IOException {
+    controller.getDrive(1).mount(image, true);
+    controller.out(0x08, 0x01);
+    controller.out(0x09, 0x04);
+    controller.out(0x09, 0x01);
+    controller.out(0x09, 0x01);
+    while (controller.in(0x09) != (0xC0 | (5 << 1))) {
+      // wait for sector 5 to come round
+    }
+    assertEquals(0x00, controller.in(0x0A));
+    assertEquals(0x42, controller.in(0x0A));
+  }
+
+  @Test
+  public void testWriteSectorReachesFile() throws IOException {
+    final DiskDrive drive = controller.getDrive(0);
+    drive.mount(image, false);
+    controller.out(0x08, 0x00);
+    controller.out(0x09, 0x04);
+    controller.out(0x09, 0x01);
+    assertEquals(0xC2, controller.in(0x09));
+    controller.out(0x09, 0x80);
+    assertEquals("Write data requested", 0x60, controller.in(0x08) & 0x61);
+    for (int i = 0; i < DiskDrive.SECTOR_SIZE; i++) {
+      controller.out(0x0A, i);
+    }
+    assertEquals("Write finished at end of sector", 0x61, controller.in(0x08) & 0x61);
+    controller.out(0x0A, 0xEE);
+    controller.flush();
+
+    final byte[] bytes = Files.readAllBytes(image);
+    final int sector = ((1 * DiskDrive.SECTORS) + 1) * DiskDrive.SECTOR_SIZE;
+    assertEquals(0, bytes[sector]);
+    assertEquals(DiskDrive.SECTOR_SIZE - 1, bytes[(sector + DiskDrive.SECTOR_SIZE) - 1] & 0xFF);
+    assertEquals("Extra byte ignored", 0, bytes[sector + DiskDrive.SECTOR_SIZE]);
+  }
+
+  @Test
+  public void testReadOnlyImageIgnoresWrites() throws IOException {
+    final DiskDrive drive = controller.getDrive(0);
+    drive.mount(image, true);
+    assertTrue(drive.isReadOnly());
+    controller.out(0x08, 0x00);
+    controller.out(0x09, 0x84);
+    controller.out(0x0A, 0x55);
+    drive.close();
+    assertFalse(drive.isMounted());
+    assertEquals(0, Files.readAllBytes(image)[0]);
+  }
+
+  @Test
+  public void testShortImageExtendedWhenWritable() throws IOException {
+    Files.write(image, new byte[10]);
+    controller.getDrive(0).mount(image, false);
+    assertEquals(DiskDrive.IMAGE_SIZE, Files.size(image));
+  }
+}
@@ -0,0 +1,127 @@
+package alternate8888.devices;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import alternate8888.machine.Computer;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class SerialBoardTest {
+
+  private static class CountingChannel implements WritableByteChannel {
+
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    int writes;
+
+    @Override
+    public int write(final ByteBuffer src) {
+      writes++;
+      final int length = src.remaining();
+      while (src.hasRemaining()) {
+        received.write(src.get());
+      }
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    String text() {
+      return new String(received.toByteArray(), StandardCharsets.US_ASCII);
+    }
+  }
+
+  private final CountingChannel sink = new CountingChannel();
+  private final SerialChannel channel = new SerialChannel(sink);
+
+  @Test
+  public void testOutputIsBatched() {
+    final Sio2Board board = new Sio2Board(channel);
+    for (int i = 0; i < 100; i++) {
+      board.out(0x11, 'A' + (i % 26));
+    }
+    assertEquals(0, sink.writes);
+    assertEquals(100, channel.pendingOutput());
+    channel.flush();
+    assertEquals(1, sink.writes);
+    assertEquals(100, sink.received.size());
+    assertEquals(0, channel.pendingOutput());
+  }
+
+  @Test
+  public void testFullBufferFlushes() {
+    final Sio2Board board = new Sio2Board(channel);
+    for (int i = 0; i < (SerialChannel.BUFFER_SIZE * 3); i++) {
+      board.out(0x11, 'x');
+    }
+    assertEquals(2, sink.writes);
+    channel.flush();
+    assertEquals(SerialChannel.BUFFER_SIZE * 3, sink.received.size());
+  }
+
+  @Test
+  public void testIdlePollingFlushes() {
+    final Sio2Board board = new Sio2Board(channel);
+    board.out(0x11, '?');
+    for (int i = 0; i < 100; i++) {
+      board.in(0x10);
+    }
+    assertEquals("?", sink.text());
+  }
+
+  @Test
+  public void test2SioStatusAndInput() {
+    final Sio2Board board = new Sio2Board(channel);
+    assertEquals(0x02, board.in(0x10));
+    channel.type("ok".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(0x03, board.in(0x10));
+    assertEquals('o', board.in(0x11));
+    assertEquals('k', board.in(0x11));
+    assertEquals(0x02, board.in(0x10));
+    assertEquals(0, board.in(0x11));
+  }
+
+  @Test
+  public void test88SioStatusIsActiveLow() {
+    final Sio88Board board = new Sio88Board(channel);
+    assertEquals(0x01, board.in(0x00));
+    channel.type(new byte[] { 'z' });
+    assertEquals(0x00, board.in(0x00));
+    assertEquals('z', board.in(0x01));
+  }
+
+  @Test
+  public void testTypeStopsWhenBufferFull() {
+    final byte[] data = new byte[SerialChannel.BUFFER_SIZE + 10];
+    assertEquals(SerialChannel.BUFFER_SIZE, channel.type(data));
+  }
+
+  @Test
+  public void testEchoProgram() {
+    final Computer computer = new Computer();
+    computer.attach(new Sio2Board(channel), Sio2Board.DEFAULT_PORT, Sio2Board.DEFAULT_PORT + 1);
+    // loop: IN 10h; RRC; JNC loop; IN 11h; OUT 11h; JMP loop
+    final int[] program = { 0333, 0x10, 0017, 0322, 0x00, 0x00, 0333, 0x11, 0323, 0x11, 0303, 0x00, 0x00 };
+    for (int i = 0; i < program.length; i++) {
+      computer.getMemory().write(i, program[i]);
+    }
+    channel.type("HELLO".getBytes(StandardCharsets.US_ASCII));
+    computer.getCPU().run(100_000);
+    assertEquals("HELLO", sink.text());
+    assertEquals(1, sink.writes);
+  }
+}
@@ -0,0 +1,319 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class CPUTest {
+
+  private static final int B = CPU.REG_B;
+  private static final int C = CPU.REG_C;
+  private static final int H = CPU.REG_H;
+  private static final int L = CPU.REG_L;
+  private static final int A = CPU.REG_A;
+
+  private final Memory memory = new Memory();
+  private final CPU cpu = new CPU(memory);
+
+  @Test
+  public void testMoveImmediateAndMove() {
+    // MVI B,42h; MOV A,B
+    Programs.load(memory, 0, 0006, 0x42, 0170);
+    assertEquals(7, cpu.step());
+    assertEquals(5, cpu.step());
+    assertEquals(0x42, cpu.getRegister(A).get());
+    assertEquals(3, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testMoveToAndFromMemory() {
+    // LXI H,1234h; MVI M,56h; MOV C,M
+    Programs.load(memory, 0, 0041, 0x34, 0x12, 0066, 0x56, 0116);
+    cpu.run(27);
+    assertEquals(0x56, memory.read(0x1234));
+    assertEquals(0x56, cpu.getRegister(C).get());
+    assertEquals(27, cpu.getCycles());
+  }
+
+  @Test
+  public void testRegisterValues() {
+    // LXI D,5678h; LXI H,1234h; MVI M,56h; LXI SP,0F000h
+    Programs.load(memory, 0, 0021, 0x78, 0x56, 0041, 0x34, 0x12, 0066, 0x56, 0061, 0x00, 0xf0);
+    cpu.run(40);
+    assertEquals(0x56, cpu.getRegisterValue(CPU.REG_D));
+    assertEquals(0x78, cpu.getRegisterValue(CPU.REG_E));
+    assertEquals(0x56, cpu.getRegisterValue(CPU.REG_M));
+    assertEquals(0x5678, cpu.getRegisterPairValue(CPU.PAIR_D));
+    assertEquals(0x1234, cpu.getRegisterPairValue(CPU.PAIR_H));
+    assertEquals(0xf000, cpu.getRegisterPairValue(CPU.PAIR_SP));
+    for (int reg = 0; reg < 8; reg++) {
+      assertEquals(cpu.getRegister(reg).get(), cpu.getRegisterValue(reg));
+    }
+  }
+
+  @Test
+  public void testAddSetsCarryAndAuxCarry() {
+    // MVI A,8Fh; ADI 81h
+    Programs.load(memory, 0, 0076, 0x8f, 0306, 0x81);
+    cpu.run(14);
+    final StatusBitRegister status = cpu.getStatusBits();
+    assertEquals(0x10, cpu.getRegister(A).get());
+    assertTrue(status.isCarry());
+    assertTrue(status.isAuxCarry());
+    assertFalse(status.isZero());
+    assertFalse(status.isSign());
+    assertFalse(status.isParity());
+  }
+
+  @Test
+  public void testSubtractSetsBorrow() {
+    // MVI A,01h; SUI 02h
+    Programs.load(memory, 0, 0076, 0x01, 0326, 0x02);
+    cpu.run(14);
+    final StatusBitRegister status = cpu.getStatusBits();
+    assertEquals(0xff, cpu.getRegister(A).get());
+    assertTrue(status.isCarry());
+    assertTrue(status.isSign());
+    assertTrue(status.isParity());
+    assertFalse(status.isAuxCarry());
+  }
+
+  @Test
+  public void testCompareEqual() {
+    // MVI A,33h; MVI B,33h; CMP B
+    Programs.load(memory, 0, 0076, 0x33, 0006, 0x33, 0270);
+    cpu.run(18);
+    assertTrue(cpu.getStatusBits().isZero());
+    assertFalse(cpu.getStatusBits().isCarry());
+    assertEquals(0x33, cpu.getRegister(A).get());
+  }
+
+  @Test
+  public void testDecimalAdjustAddition() {
+    // MVI A,38h; ADI 45h; DAA
+    Programs.load(memory, 0, 0076, 0x38, 0306, 0x45, 0047);
+    cpu.run(18);
+    assertEquals(0x83, cpu.getRegister(A).get());
+    assertFalse(cpu.getStatusBits().isCarry());
+  }
+
+  @Test
+  public void testDecimalAdjustManualExample() {
+    // MVI A,A4h; DAA
+    Programs.load(memory, 0, 0076, 0xa4, 0047);
+    cpu.run(11);
+    assertEquals(0x04, cpu.getRegister(A).get());
+    assertTrue(cpu.getStatusBits().isCarry());
+  }
+
+  @Test
+  public void testCallAndReturn() {
+    // LXI SP,0100h; CALL 0010h; ... 0010h: RET
+    Programs.load(memory, 0, 0061, 0x00, 0x01, 0315, 0x10, 0x00);
+    Programs.load(memory, 0x10, 0311);
+    assertEquals(10, cpu.step());
+    assertEquals(17, cpu.step());
+    assertEquals(0x10, cpu.getProgramCounter().get());
+    assertEquals(0xfe, cpu.getStackPointer().get());
+    assertEquals(0x06, memory.read(0xfe));
+    assertEquals(10, cpu.step());
+    assertEquals(0x06, cpu.getProgramCounter().get());
+    assertEquals(0x100, cpu.getStackPointer().get());
+  }
+
+  @Test
+  public void testConditionalCallCycles() {
+    // LXI SP,0100h; XRA A; CNZ 0020h; CZ 0020h
+    Programs.load(memory, 0, 0061, 0x00, 0x01, 0257, 0304, 0x20, 0x00, 0314, 0x20, 0x00);
+    cpu.step();
+    cpu.step();
+    assertEquals(11, cpu.step());
+    assertEquals(7, cpu.getProgramCounter().get());
+    assertEquals(17, cpu.step());
+    assertEquals(0x20, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testConditionalReturnCycles() {
+    // LXI SP,00FEh; STC; RNC; RC (return address 1234h on the stack)
+    Programs.load(memory, 0, 0061, 0xfe, 0x00, 0067, 0320, 0330);
+    Programs.load(memory, 0xfe, 0x34, 0x12);
+    cpu.step();
+    cpu.step();
+    assertEquals(5, cpu.step());
+    assertEquals(11, cpu.step());
+    assertEquals(0x1234, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testCountdownLoop() {
+    // MVI B,10; loop: DCR B; JNZ loop
+    Programs.load(memory, 0, 0006, 10, 0005, 0302, 0x02, 0x00);
+    final long executed = cpu.run(7 + (10 * 15));
+    assertEquals(7 + (10 * 15), executed);
+    assertEquals(0, cpu.getRegister(B).get());
+    assertTrue(cpu.getStatusBits().isZero());
+    assertEquals(6, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testRunOverrunsByAtMostOneInstruction() {
+    // LXI H,0000h repeated
+    Programs.load(memory, 0, 0041, 0, 0, 0041, 0, 0);
+    assertEquals(20, cpu.run(11));
+  }
+
+  @Test
+  public void testRestart() {
+    // LXI SP,0100h; RST 2
+    Programs.load(memory, 0, 0061, 0x00, 0x01, 0327);
+    cpu.step();
+    assertEquals(11, cpu.step());
+    assertEquals(0x10, cpu.getProgramCounter().get());
+    assertEquals(0x04, memory.read(0xfe));
+  }
+
+  @Test
+  public void testPushPopPSW() {
+    // LXI SP,0100h; MVI A,12h; STC; PUSH PSW; POP B
+    Programs.load(memory, 0, 0061, 0x00, 0x01, 0076, 0x12, 0067, 0365, 0301);
+    cpu.run(42);
+    assertEquals(0x12, cpu.getRegister(B).get());
+    assertEquals(0x03, cpu.getRegister(C).get());
+  }
+
+  @Test
+  public void testDirectAddressing() {
+    // LXI H,BEEFh; SHLD 2000h; LDA 2001h; LHLD 1FFFh
+    Programs.load(memory, 0, 0041, 0xef, 0xbe, 0042, 0x00, 0x20, 0072, 0x01, 0x20, 0052, 0xff, 0x1f);
+    cpu.run(55);
+    assertEquals(0xbe, cpu.getRegister(A).get());
+    assertEquals(0xef, cpu.getRegister(H).get());
+    assertEquals(0x00, cpu.getRegister(L).get());
+  }
+
+  @Test
+  public void testAndSetsAuxCarryFromOperands() {
+    // MVI A,08h; ANI 00h
+    Programs.load(memory, 0, 0076, 0x08, 0346, 0x00);
+    cpu.run(14);
+    assertEquals(0, cpu.getRegister(A).get());
+    assertTrue(cpu.getStatusBits().isZero());
+    assertTrue(cpu.getStatusBits().isAuxCarry());
+    assertFalse(cpu.getStatusBits().isCarry());
+  }
+
+  @Test
+  public void testDoubleAddStackPointer() {
+    // LXI SP,8000h; LXI H,8001h; DAD SP
+    Programs.load(memory, 0, 0061, 0x00, 0x80, 0041, 0x01, 0x80, 0071);
+    cpu.run(30);
+    assertEquals(0x0001, cpu.getRegisterPair(2).get());
+    assertTrue(cpu.getStatusBits().isCarry());
+  }
+
+  @Test
+  public void testHaltStopsRun() {
+    // MVI A,01h; HLT
+    Programs.load(memory, 0, 0076, 0x01, 0166);
+    assertEquals(14, cpu.run(1000));
+    assertTrue(cpu.isHalted());
+    assertEquals(3, cpu.getProgramCounter().get());
+    assertEquals(0, cpu.run(1000));
+  }
+
+  @Test
+  public void testInterruptWakesHaltedCPU() throws InterruptedException {
+    // LXI SP,0100h; EI; HLT; ... 0018h: INR A
+    Programs.load(memory, 0, 0061, 0x00, 0x01, 0373, 0166);
+    Programs.load(memory, 0x18, 0074);
+    cpu.run(1000);
+    assertTrue(cpu.isHalted());
+    assertFalse(cpu.awaitInterrupt(TimeUnit.MILLISECONDS.toNanos(10)));
+
+    final Thread device = new Thread(() -> cpu.getInterruptController().request(3));
+    device.start();
+    assertTrue(cpu.awaitInterrupt(TimeUnit.SECONDS.toNanos(10)));
+    device.join();
+
+    assertEquals(11 + 5, cpu.step());
+    assertFalse(cpu.isHalted());
+    assertFalse(cpu.isInterruptsEnabled());
+    assertEquals(1, cpu.getRegister(A).get());
+    assertEquals(0x19, cpu.getProgramCounter().get());
+    assertEquals(0x05, memory.read(0xfe));
+  }
+
+  @Test
+  public void testHaltWithInterruptsDisabledStaysHalted() {
+    // HLT
+    Programs.load(memory, 0, 0166);
+    cpu.run(100);
+    cpu.getInterruptController().request(0);
+    assertFalse(cpu.awaitInterrupt(TimeUnit.MILLISECONDS.toNanos(1)));
+    assertEquals(0, cpu.run(100));
+    assertTrue(cpu.isHalted());
+  }
+
+  @Test
+  public void testInstructionAfterEnableInterruptsRunsFirst() {
+    // LXI SP,0100h; EI; INR B; INR B
+    Programs.load(memory, 0, 0061, 0x00, 0x01, 0373, 0004, 0004);
+    cpu.getInterruptController().request(7);
+    cpu.step();
+    cpu.step();
+    cpu.step();
+    assertEquals(1, cpu.getRegister(B).get());
+    // RST 7, then the NOP at 0038h
+    assertEquals(11 + 4, cpu.step());
+    assertEquals(0x39, cpu.getProgramCounter().get());
+    assertEquals(1, cpu.getRegister(B).get());
+    assertEquals(0x05, memory.read(0xfe));
+  }
+
+  @Test
+  public void testDecodeCacheMatchesInterpreter() {
+    // LXI SP,1000h; MVI B,100; loop: ADD B; PUSH PSW; POP D; DCR B; JNZ loop; HLT
+    final int[] program = { 0061, 0x00, 0x10, 0006, 100, 0200, 0365, 0321, 0005, 0302, 0x05, 0x00, 0166 };
+    Programs.load(memory, 0, program);
+    final Memory referenceMemory = new Memory();
+    for (int i = 0; i < program.length; i++) {
+      referenceMemory.write(i, program[i]);
+    }
+    final CPU interpreted = new CPU(referenceMemory);
+
+    cpu.setDecodeCacheEnabled(true);
+    assertEquals(interpreted.run(1_000_000), cpu.run(1_000_000));
+    assertTrue(cpu.isHalted());
+    assertEquals(interpreted.getRegister(A).get(), cpu.getRegister(A).get());
+    assertEquals(interpreted.getRegisterPair(1).get(), cpu.getRegisterPair(1).get());
+    assertEquals(interpreted.getStatusBits().get(), cpu.getStatusBits().get());
+    assertEquals(interpreted.getProgramCounter().get(), cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testDecodeCacheDropsOverwrittenInstruction() {
+    // 00FEh: MVI B,11h (operand on the next page); JMP 00FEh
+    Programs.load(memory, 0x00fe, 0006, 0x11, 0303, 0xfe, 0x00);
+    cpu.getProgramCounter().set(0x00fe);
+    cpu.setDecodeCacheEnabled(true);
+    cpu.run(100);
+    assertEquals(0x11, cpu.getRegister(B).get());
+    memory.write(0x00ff, 0x22);
+    cpu.run(100);
+    assertEquals(0x22, cpu.getRegister(B).get());
+
+    cpu.setDecodeCacheEnabled(false);
+    assertFalse(cpu.isDecodeCacheEnabled());
+    memory.write(0x00ff, 0x33);
+    cpu.run(100);
+    assertEquals(0x33, cpu.getRegister(B).get());
+  }
+}
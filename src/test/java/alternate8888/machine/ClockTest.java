@@ -0,0 +1,122 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class ClockTest {
+
+  private final CPU cpu = new CPU();
+
+  /**
+   * Time that passes only when the clock parks, each park oversleeping by a
+   * set amount, and that stops the clock after a number of parks.
+   */
+  private static final class SimulatedTime implements Clock.TimeSource {
+
+    private final long oversleep;
+    private final int parks;
+
+    private Clock clock;
+    private long now;
+    private int parked;
+    private int pauseAt = -1;
+    private long pause;
+
+    SimulatedTime(final long oversleep,
+                  final int parks) {
+      this.oversleep = oversleep;
+      this.parks = parks;
+    }
+
+    @Override
+    public long nanoTime() {
+      return now;
+    }
+
+    @Override
+    public void parkNanos(final Object blocker,
+                          final long nanos) {
+      now += nanos + oversleep;
+      if (++parked == pauseAt) {
+        now += pause;
+      }
+      if (parked == parks) {
+        clock.stop();
+      }
+    }
+  }
+
+  private Thread start(final Clock clock) {
+    final Thread thread = new Thread(clock);
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void testSliceCycles() {
+    assertEquals(2000, new Clock(cpu).getSliceCycles());
+  }
+
+  @Test
+  public void testThrottledRunsAtClockFrequency() {
+    // Every park oversleeps by 300us, nearly a third of a slice; measured from
+    // the start rather than from the last slice, the error does not add up
+    final SimulatedTime time = new SimulatedTime(300_000, 1000);
+    final Clock clock = new Clock(cpu, Clock.ALTAIR_FREQUENCY, Clock.DEFAULT_SLICE_NANOS, Clock.Mode.THROTTLED, time);
+    time.clock = clock;
+    clock.run();
+    assertEquals(Clock.ALTAIR_FREQUENCY, clock.getEffectiveFrequency(), Clock.ALTAIR_FREQUENCY * 0.001);
+    assertEquals(0, clock.getOverruns());
+    assertFalse(clock.isRunning());
+  }
+
+  @Test
+  public void testLongPauseRestartsSchedule() {
+    final SimulatedTime time = new SimulatedTime(0, 100);
+    time.pauseAt = 10;
+    time.pause = Clock.MAX_LAG_NANOS * 10;
+    final Clock clock = new Clock(cpu, Clock.ALTAIR_FREQUENCY, Clock.DEFAULT_SLICE_NANOS, Clock.Mode.THROTTLED, time);
+    time.clock = clock;
+    clock.run();
+    // One late slice, after which the clock paces from the present rather than
+    // running a second's worth of slices flat out to catch up
+    assertEquals(1, clock.getOverruns());
+    assertEquals((101 * Clock.ALTAIR_FREQUENCY) / 1000, cpu.getCycles());
+  }
+
+  @Test
+  public void testThrottledNeverRunsFast() throws InterruptedException {
+    // Real time, where a busy host can only slow the clock down
+    final Clock clock = new Clock(cpu);
+    final Thread thread = start(clock);
+    Thread.sleep(200);
+    final double frequency = clock.getEffectiveFrequency();
+    clock.stop();
+    thread.join();
+    assertTrue(frequency > 0);
+    assertTrue(frequency < (Clock.ALTAIR_FREQUENCY * 1.05));
+    assertFalse(clock.isRunning());
+  }
+
+  @Test
+  public void testUnthrottledRunsFaster() throws InterruptedException {
+    final Clock clock = new Clock(cpu, Clock.ALTAIR_FREQUENCY, Clock.DEFAULT_SLICE_NANOS, Clock.Mode.UNTHROTTLED);
+    final Thread thread = start(clock);
+    Thread.sleep(200);
+    final double frequency = clock.getEffectiveFrequency();
+    clock.stop();
+    thread.join();
+    assertTrue(frequency > (Clock.ALTAIR_FREQUENCY * 2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsZeroFrequency() {
+    new Clock(cpu, 0, Clock.DEFAULT_SLICE_NANOS, Clock.Mode.THROTTLED);
+  }
+}
@@ -0,0 +1,88 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class ComputerMonitorTest {
+
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+  private final Computer computer = new Computer();
+  private final ComputerMonitor monitor = ComputerMonitor.register(computer, "test");
+
+  @After
+  public void unregister() {
+    monitor.close();
+  }
+
+  @Test
+  public void testRegisteredUnderName() throws Exception {
+    final ObjectName name = new ObjectName("alternate8888:type=Computer,name=\"test\"");
+    assertEquals(name, monitor.getObjectName());
+    assertTrue(server.isRegistered(name));
+    monitor.close();
+    assertFalse(server.isRegistered(name));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNameTaken() {
+    ComputerMonitor.register(new Computer(), "test");
+  }
+
+  @Test
+  public void testCountersReadOverJmx() throws Exception {
+    // MVI A,1; OUT 10h; IN 11h; IN 11h; HLT
+    Programs.load(computer.getMemory(), 0, 0076, 0x01, 0323, 0x10, 0333, 0x11, 0333, 0x11, 0166);
+    computer.getCPU().run(1000);
+
+    final ObjectName name = monitor.getObjectName();
+    assertEquals(5L, server.getAttribute(name, "Instructions"));
+    assertEquals(7L + 10 + 10 + 10 + 7, server.getAttribute(name, "Cycles"));
+    assertEquals(true, server.getAttribute(name, "Halted"));
+    assertEquals(0L, server.getAttribute(name, "InterruptCount"));
+
+    final long[] outputs = new long[IoBus.PORTS];
+    outputs[0x10] = 1;
+    assertArrayEquals(outputs, (long[]) server.getAttribute(name, "OutputCounts"));
+    assertEquals(2, ((long[]) server.getAttribute(name, "InputCounts"))[0x11]);
+  }
+
+  @Test
+  public void testInterruptEndsHalt() throws Exception {
+    // EI; HLT ... 0008h: HLT
+    Programs.load(computer.getMemory(), 0, 0373, 0166);
+    Programs.load(computer.getMemory(), 0x08, 0166);
+    computer.getCPU().getStackPointer().set(0x1000);
+    computer.getCPU().run(1000);
+    assertTrue(monitor.isHalted());
+    Thread.sleep(5);
+    computer.getInterruptController().request(1);
+    computer.getCPU().run(1000);
+
+    assertEquals(1, monitor.getInterruptCount());
+    assertTrue(monitor.getHaltedMillis() >= 5);
+  }
+
+  @Test
+  public void testEffectiveRate() {
+    // loop: JMP loop
+    Programs.load(computer.getMemory(), 0, 0303, 0x00, 0x00);
+    monitor.sample();
+    computer.getCPU().run(2_000_000);
+    final double rate = monitor.getEffectiveMHz1s();
+    assertTrue(String.valueOf(rate), rate > 0);
+    assertTrue(monitor.getEffectiveMHz60s() > 0);
+  }
+}
@@ -0,0 +1,118 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class ComputerTest {
+
+  private final Computer computer = new Computer();
+  private final Memory memory = computer.getMemory();
+  private final CPU cpu = computer.getCPU();
+
+  @Test
+  public void testToggleInProgram() {
+    // MVI A,2Ah; HLT toggled in at 0100h
+    computer.setSwitches(0x0100);
+    computer.examine();
+    computer.setSwitches(0076);
+    computer.deposit();
+    computer.setSwitches(0x2A);
+    computer.depositNext();
+    computer.setSwitches(0166);
+    computer.depositNext();
+
+    assertEquals(0076, memory.read(0x0100));
+    assertEquals(0x2A, memory.read(0x0101));
+    assertEquals(0166, memory.read(0x0102));
+    assertEquals(0x0102, cpu.getProgramCounter().get());
+
+    computer.setSwitches(0x0100);
+    assertEquals(0076, computer.examine());
+    assertEquals(0x2A, computer.examineNext());
+    assertEquals(0x0101, cpu.getProgramCounter().get());
+
+    computer.examine();
+    cpu.run(100);
+    assertEquals(0x2A, cpu.getRegister(7).get());
+  }
+
+  @Test
+  public void testDepositUsesLowSwitches() {
+    computer.setSwitches(0x12FF);
+    computer.examine();
+    computer.setSwitches(0xAB42);
+    computer.deposit();
+    assertEquals(0x42, memory.read(0x12FF));
+    assertEquals(0x12FF, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testExamineNextWraps() {
+    computer.setSwitches(0xFFFF);
+    computer.examine();
+    memory.write(0, 0x55);
+    assertEquals(0x55, computer.examineNext());
+    assertEquals(0, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testBulkDeposit() {
+    final byte[] loader = new byte[300];
+    for (int i = 0; i < loader.length; i++) {
+      loader[i] = (byte) i;
+    }
+    computer.setSwitches(0x1234);
+    computer.deposit(0xFF00, loader);
+
+    for (int i = 0; i < loader.length; i++) {
+      assertEquals(i & 0xFF, memory.read(0xFF00 + i));
+    }
+    assertEquals((0xFF00 + 299) & 0xFFFF, cpu.getProgramCounter().get());
+    assertEquals("Switches untouched", 0x1234, computer.getSwitches());
+
+    computer.depositNext(new byte[] { 0x77, 0x66 });
+    assertEquals(0x77, memory.read(0x002C));
+    assertEquals(0x66, memory.read(0x002D));
+    assertEquals(0x002D, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testBulkExamine() {
+    for (int i = 0; i < 300; i++) {
+      memory.write(0xFF00 + i, i);
+    }
+    computer.setSwitches(0x1234);
+    final byte[] data = new byte[300];
+    computer.examine(0xFF00, data);
+
+    for (int i = 0; i < data.length; i++) {
+      assertEquals(i & 0xFF, data[i] & 0xFF);
+    }
+    assertEquals((0xFF00 + 299) & 0xFFFF, cpu.getProgramCounter().get());
+    assertEquals("Switches untouched", 0x1234, computer.getSwitches());
+
+    computer.examine(0x0100, new byte[0]);
+    assertEquals(0x0100, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testBulkDepositInvalidatesDecodedCode() {
+    // MVI A,1; HLT
+    computer.deposit(0, new byte[] { 0076, 0x01, 0166 });
+    cpu.setDecodeCacheEnabled(true);
+    computer.setSwitches(0);
+    computer.examine();
+    cpu.run(100);
+    assertEquals(1, cpu.getRegister(7).get());
+
+    // MVI A,2; HLT
+    computer.deposit(0, new byte[] { 0076, 0x02, 0166 });
+    cpu.reset();
+    cpu.run(100);
+    assertEquals(2, cpu.getRegister(7).get());
+  }
+}
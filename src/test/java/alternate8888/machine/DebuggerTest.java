@@ -0,0 +1,213 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class DebuggerTest {
+
+  private static final int A = 7;
+
+  private final Memory memory = new Memory();
+  private final CPU cpu = new CPU(memory);
+  private final Debugger debugger = cpu.getDebugger();
+
+  @Test
+  public void testInactiveByDefault() {
+    assertFalse(debugger.isActive());
+    debugger.setBreakpoint(0x10);
+    assertTrue(debugger.isActive());
+    debugger.clearBreakpoint(0x10);
+    assertFalse(debugger.isActive());
+  }
+
+  @Test
+  public void testBreakpointStopsBeforeInstruction() {
+    // NOP; NOP; INR A; INR A; HLT
+    Programs.load(memory, 0, 0000, 0000, 0074, 0074, 0166);
+    debugger.setBreakpoint(3);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.BREAKPOINT, debugger.getStop());
+    assertEquals(3, debugger.getStopAddress());
+    assertEquals(3, cpu.getProgramCounter().get());
+    assertEquals(1, cpu.getRegister(A).get());
+
+    // Stopped until resumed
+    assertEquals(0, cpu.run(1000));
+    assertEquals(Debugger.Stop.BREAKPOINT, debugger.getStop());
+    assertEquals(3, cpu.getProgramCounter().get());
+
+    // Running after resuming steps off the breakpoint
+    debugger.resume();
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.NONE, debugger.getStop());
+    assertTrue(cpu.isHalted());
+    assertEquals(2, cpu.getRegister(A).get());
+  }
+
+  @Test
+  public void testBreakpointAtStartOfSlice() {
+    // loop: NOP; NOP; NOP; JMP loop
+    Programs.load(memory, 0, 0000, 0000, 0000, 0303, 0x00, 0x00);
+    debugger.setBreakpoint(2);
+    // Two NOPs end the slice with the breakpoint next
+    cpu.run(8);
+    assertEquals(Debugger.Stop.NONE, debugger.getStop());
+    assertEquals(2, cpu.getProgramCounter().get());
+
+    cpu.run(8);
+    assertEquals(Debugger.Stop.BREAKPOINT, debugger.getStop());
+    assertEquals(2, cpu.getProgramCounter().get());
+    assertEquals(8, cpu.getCycles());
+
+    // Resuming passes over it once, and the next time round it stops again
+    debugger.resume();
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.BREAKPOINT, debugger.getStop());
+    assertEquals(2, cpu.getProgramCounter().get());
+    assertEquals(8 + 4 + 10 + 4 + 4, cpu.getCycles());
+  }
+
+  @Test
+  public void testBreakpointAtInterruptHandler() {
+    // EI; loop: NOP; JMP loop ... 0010h: RST 2 handler
+    Programs.load(memory, 0, 0373, 0000, 0303, 0x01, 0x00);
+    Programs.load(memory, 0x10, 0311);
+    cpu.getStackPointer().set(0x1000);
+    debugger.setBreakpoint(0x10);
+    cpu.run(100);
+    assertEquals(Debugger.Stop.NONE, debugger.getStop());
+    cpu.getInterruptController().request(2);
+    cpu.run(100);
+    assertEquals(Debugger.Stop.BREAKPOINT, debugger.getStop());
+    assertEquals(0x10, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testWriteWatchpoint() {
+    // LXI H,1234h; MVI M,56h; INR A; HLT
+    Programs.load(memory, 0, 0041, 0x34, 0x12, 0066, 0x56, 0074, 0166);
+    debugger.setWriteWatchpoint(0x1234);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.WRITE_WATCHPOINT, debugger.getStop());
+    assertEquals(0x1234, debugger.getStopAddress());
+    assertEquals(0x56, memory.read(0x1234));
+    assertEquals(5, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testWriteToOtherAddressOnWatchedPageDoesNotStop() {
+    // LXI H,1235h; MVI M,56h; HLT
+    Programs.load(memory, 0, 0041, 0x35, 0x12, 0066, 0x56, 0166);
+    debugger.setWriteWatchpoint(0x1234);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.NONE, debugger.getStop());
+    assertTrue(cpu.isHalted());
+  }
+
+  @Test
+  public void testReadWatchpoint() {
+    // LDA 2000h; INR A; HLT
+    Programs.load(memory, 0, 0072, 0x00, 0x20, 0074, 0166);
+    memory.write(0x2000, 0x41);
+    debugger.setReadWatchpoint(0x2000);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.READ_WATCHPOINT, debugger.getStop());
+    assertEquals(0x2000, debugger.getStopAddress());
+    assertEquals(0x41, cpu.getRegister(A).get());
+    assertEquals(3, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testReadWatchpointOnStack() {
+    // LXI SP,3000h; CALL 0010h; HLT; ... 0010h: RET
+    Programs.load(memory, 0, 0061, 0x00, 0x30, 0315, 0x10, 0x00, 0166);
+    Programs.load(memory, 0x10, 0311);
+    debugger.setReadWatchpoint(0x2ffe);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.READ_WATCHPOINT, debugger.getStop());
+    assertEquals(6, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testReadWatchpointOnMemoryOperand() {
+    // LXI H,2000h; MOV A,M; HLT
+    Programs.load(memory, 0, 0041, 0x00, 0x20, 0176, 0166);
+    memory.write(0x2000, 0x41);
+    debugger.setReadWatchpoint(0x2000);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.READ_WATCHPOINT, debugger.getStop());
+    assertEquals(0x2000, debugger.getStopAddress());
+    assertEquals(0x41, cpu.getRegister(A).get());
+    assertEquals(4, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testReadWatchpointOnAluMemoryOperand() {
+    // LXI H,2000h; ADD M; HLT
+    Programs.load(memory, 0, 0041, 0x00, 0x20, 0206, 0166);
+    memory.write(0x2000, 0x41);
+    debugger.setReadWatchpoint(0x2000);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.READ_WATCHPOINT, debugger.getStop());
+    assertEquals(0x41, cpu.getRegister(A).get());
+    assertEquals(4, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testReadWatchpointOnExchangeWithStack() {
+    // LXI SP,3000h; XTHL; HLT
+    Programs.load(memory, 0, 0061, 0x00, 0x30, 0343, 0166);
+    memory.write(0x3001, 0x12);
+    debugger.setReadWatchpoint(0x3001);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.READ_WATCHPOINT, debugger.getStop());
+    assertEquals(0x3001, debugger.getStopAddress());
+    assertEquals(0x1200, cpu.getRegisterPair(2).get());
+    assertEquals(4, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testReadWatchpointOnPop() {
+    // LXI SP,3000h; POP D; HLT
+    Programs.load(memory, 0, 0061, 0x00, 0x30, 0321, 0166);
+    memory.write(0x3000, 0x34);
+    debugger.setReadWatchpoint(0x3000);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.READ_WATCHPOINT, debugger.getStop());
+    assertEquals(0x3000, debugger.getStopAddress());
+    assertEquals(0x0034, cpu.getRegisterPair(1).get());
+    assertEquals(4, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testReadWatchpointOnConditionalReturnOnlyWhenTaken() {
+    // LXI SP,2FFEh; XRA A; RNZ; RZ; ... 0010h: HLT, with 0010h on the stack
+    Programs.load(memory, 0, 0061, 0xFE, 0x2F, 0257, 0300, 0310);
+    Programs.load(memory, 0x10, 0166);
+    memory.write(0x2FFE, 0x10);
+    debugger.setReadWatchpoint(0x2FFF);
+    cpu.run(1000);
+    assertEquals(Debugger.Stop.READ_WATCHPOINT, debugger.getStop());
+    assertEquals(0x2FFF, debugger.getStopAddress());
+    assertEquals(0x10, cpu.getProgramCounter().get());
+  }
+
+  @Test
+  public void testClearAllReturnsToPlainLoop() {
+    // LXI H,1234h; MVI M,56h; HLT
+    Programs.load(memory, 0, 0041, 0x34, 0x12, 0066, 0x56, 0166);
+    debugger.setBreakpoint(3);
+    debugger.setWriteWatchpoint(0x1234);
+    debugger.clearAll();
+    assertFalse(debugger.isActive());
+    cpu.run(1000);
+    assertTrue(cpu.isHalted());
+    assertEquals(Debugger.Stop.NONE, debugger.getStop());
+  }
+}
@@ -0,0 +1,121 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class FlightRecorderEventsTest {
+
+  private final Computer computer = new Computer();
+  private final CPU cpu = computer.getCPU();
+
+  private List<RecordedEvent> record(final Runnable work) throws IOException {
+    final Path file = Files.createTempFile("events", ".jfr");
+    try {
+      try (Recording recording = new Recording()) {
+        recording.enable(SliceEvent.class).withoutThreshold();
+        recording.enable(HaltEvent.class).withoutThreshold();
+        recording.enable(InterruptEvent.class);
+        recording.enable(IoBurstEvent.class).withoutThreshold();
+        recording.start();
+        work.run();
+        recording.stop();
+        recording.dump(file);
+      }
+      return RecordingFile.readAllEvents(file).stream()
+          .filter(event -> event.getEventType().getName().startsWith("alternate8888."))
+          .filter(event -> event.getLong("machine") == cpu.getId())
+          .collect(Collectors.toList());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static List<RecordedEvent> named(final List<RecordedEvent> events,
+                                           final String name) {
+    return events.stream()
+        .filter(event -> event.getEventType().getName().equals("alternate8888." + name))
+        .collect(Collectors.toList());
+  }
+
+  @Test
+  public void testDisabledWhenNotRecording() {
+    assertFalse(SliceEvent.PROBE.isEnabled());
+    assertFalse(HaltEvent.PROBE.isEnabled());
+  }
+
+  @Test
+  public void testSliceHaltAndInterrupt() throws IOException {
+    // EI; HLT; HLT ... 0010h: RET
+    Programs.load(computer.getMemory(), 0, 0373, 0166, 0166);
+    Programs.load(computer.getMemory(), 0x10, 0311);
+    cpu.getStackPointer().set(0x1000);
+
+    final List<RecordedEvent> events = record(() -> {
+      cpu.run(1000);
+      computer.getInterruptController().request(2);
+      cpu.run(1000);
+    });
+
+    final List<RecordedEvent> slices = named(events, "Slice");
+    assertEquals(2, slices.size());
+    assertEquals(11, slices.get(0).getLong("cycles"));
+    assertEquals(2, slices.get(0).getLong("instructions"));
+    assertTrue(slices.get(0).getBoolean("halted"));
+
+    final List<RecordedEvent> interrupts = named(events, "Interrupt");
+    assertEquals(1, interrupts.size());
+    assertEquals(2, interrupts.get(0).getInt("vector"));
+    assertEquals(2, interrupts.get(0).getInt("address"));
+    assertTrue(interrupts.get(0).getBoolean("halted"));
+
+    // The first halt ended by the interrupt; the second is still going
+    final List<RecordedEvent> halts = named(events, "Halt");
+    assertEquals(1, halts.size());
+    assertEquals(2, halts.get(0).getInt("address"));
+  }
+
+  @Test
+  public void testIoBursts() throws IOException {
+    // OUT 10h; OUT 10h; OUT 10h; IN 10h; OUT 11h; HLT
+    Programs.load(computer.getMemory(), 0, 0323, 0x10, 0323, 0x10, 0323, 0x10, 0333, 0x10, 0323, 0x11, 0166);
+
+    final List<RecordedEvent> bursts = named(record(() -> cpu.run(1000)), "IoBurst");
+    assertEquals(3, bursts.size());
+    assertEquals(0x10, bursts.get(0).getInt("port"));
+    assertTrue(bursts.get(0).getBoolean("output"));
+    assertEquals(3, bursts.get(0).getLong("count"));
+    assertFalse(bursts.get(1).getBoolean("output"));
+    assertEquals(1, bursts.get(1).getLong("count"));
+    assertEquals(0x11, bursts.get(2).getInt("port"));
+  }
+
+  @Test
+  public void testStepEndsIoBurst() throws IOException {
+    // OUT 10h; OUT 10h
+    Programs.load(computer.getMemory(), 0, 0323, 0x10, 0323, 0x10);
+
+    final List<RecordedEvent> bursts = named(record(() -> {
+      cpu.step();
+      cpu.step();
+    }), "IoBurst");
+    assertEquals(2, bursts.size());
+    assertEquals(1, bursts.get(0).getLong("count"));
+    assertEquals(1, bursts.get(1).getLong("count"));
+  }
+}
@@ -0,0 +1,112 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class FrontPanelTest {
+
+  private final Computer computer = new Computer();
+  private final CPU cpu = computer.getCPU();
+
+  @Test
+  public void testRunningShowsNextFetch() {
+    // EI; MVI A,5; HLT
+    Programs.load(computer.getMemory(), 0, 0373, 0076, 0x05, 0166);
+    final FrontPanel panel = new FrontPanel(computer);
+    cpu.step();
+
+    final FrontPanel.Lights lights = panel.sample();
+    assertEquals(EnumSet.of(StatusLeds.MEMR, StatusLeds.M1, StatusLeds.WO), lights.getLit());
+    assertEquals(0x0001, lights.getAddress());
+    assertEquals(0076, lights.getData());
+    assertTrue(lights.isInterruptsEnabled());
+    assertEquals(1, lights.getAddressIntensity(0), 0);
+    assertEquals(0, lights.getAddressIntensity(1), 0);
+  }
+
+  @Test
+  public void testHalted() {
+    Programs.load(computer.getMemory(), 0, 0166);
+    final FrontPanel panel = new FrontPanel(computer);
+    cpu.run(100);
+
+    final FrontPanel.Lights lights = panel.sample();
+    assertEquals(EnumSet.of(StatusLeds.HLTA, StatusLeds.WO), lights.getLit());
+    assertEquals(0x0001, lights.getAddress());
+    assertEquals(0xFF, lights.getData());
+    assertFalse(lights.isInterruptsEnabled());
+  }
+
+  @Test
+  public void testSamplingWithoutIntensityLeavesCpuAlone() {
+    Programs.load(computer.getMemory(), 0, 0000);
+    new FrontPanel(computer).sample();
+    // A panel without intensity attaches nothing, so run() keeps its plain loop
+    cpu.setDecodeCacheEnabled(true);
+    cpu.run(100);
+    assertTrue(cpu.getInstructions() > 0);
+  }
+
+  @Test
+  public void testIntensity() {
+    // loop: MOV M,A; JMP loop
+    Programs.load(computer.getMemory(), 0, 0167, 0303, 0x00, 0x00);
+    cpu.getRegister(4).set(0x10);
+    final FrontPanel panel = new FrontPanel(computer, true);
+    // MOV M,A takes 7 cycles and JMP 10
+    cpu.run(17 * 100);
+    // The CPU gives back the period at its next slice, so the first sample has
+    // none to show
+    assertEquals(1, panel.sample().getIntensity(StatusLeds.M1), 0);
+    cpu.run(17);
+
+    final FrontPanel.Lights lights = panel.sample();
+    // Fetch states light M1 in both; only the JMP's operand reads light MEMR after
+    assertEquals(8 / 17f, lights.getIntensity(StatusLeds.M1), 1e-6);
+    assertEquals(14 / 17f, lights.getIntensity(StatusLeds.MEMR), 1e-6);
+    assertEquals(0, lights.getIntensity(StatusLeds.OUT), 0);
+    // The PC is 0 for MOV and 1 for JMP
+    assertEquals(10 / 17f, lights.getAddressIntensity(0), 1e-6);
+    assertEquals(0, lights.getAddressIntensity(1), 0);
+
+    // A new period starts at each sample; the one just shown was the 17
+    // cycles between the first two
+    cpu.run(17);
+    assertEquals(8 / 17f, panel.sample().getIntensity(StatusLeds.M1), 1e-6);
+    // No slice since the previous sample, no intensity
+    assertEquals(1, panel.sample().getIntensity(StatusLeds.M1), 0);
+
+    panel.detach();
+    cpu.run(17);
+    assertEquals(1, panel.sample().getIntensity(StatusLeds.M1), 0);
+    // Sampling a detached panel does not attach it again
+    assertNull(cpu.getPanelAccumulator());
+  }
+
+  @Test
+  public void testOneIntensityPanelPerCpu() {
+    final FrontPanel first = new FrontPanel(computer, true);
+    try {
+      new FrontPanel(computer, true);
+      fail("Expected IllegalStateException");
+    } catch (final IllegalStateException e) {
+      assertEquals("The CPU already has a panel showing intensity", e.getMessage());
+    }
+    first.detach();
+    new FrontPanel(computer, true);
+    // The CPU takes the accumulator up at its next slice
+    cpu.run(4);
+    assertNotNull(cpu.getPanelAccumulator());
+  }
+}
@@ -0,0 +1,120 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class HostTest {
+
+  private final Host host = new Host(2, 10_000);
+
+  @After
+  public void closeHost() {
+    host.close();
+  }
+
+  private static Computer load(final int... program) {
+    final Computer computer = new Computer();
+    for (int i = 0; i < program.length; i++) {
+      computer.getMemory().write(i, program[i]);
+    }
+    return computer;
+  }
+
+  private static void await(final BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue("Timed out", System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testBusyMachinesShareThePool() throws InterruptedException {
+    // loop: INX B; JMP loop
+    final Host.Machine[] busy = new Host.Machine[4];
+    for (int i = 0; i < busy.length; i++) {
+      busy[i] = host.add(load(0003, 0303, 0x00, 0x00));
+    }
+    await(() -> {
+      for (final Host.Machine machine : busy) {
+        if (machine.getCycles() < 1_000_000) {
+          return false;
+        }
+      }
+      return true;
+    });
+    assertTrue(host.getTotalCycles() >= 4_000_000);
+    assertTrue(host.getCyclesPerSecond() > 0);
+    assertFalse(busy[0].isIdle());
+    assertEquals(4, host.getMachines().size());
+  }
+
+  @Test
+  public void testHaltedMachineIsIdleUntilInterrupted() throws InterruptedException {
+    // 0000: LXI SP,1000h; loop: EI; HLT; JMP loop   0038h: INR B; RET
+    final Computer computer = load(0061, 0x00, 0x10, 0373, 0166, 0303, 0x03, 0x00);
+    computer.getMemory().write(0x0038, 0004);
+    computer.getMemory().write(0x0039, 0311);
+    final Host.Machine machine = host.add(computer);
+    await(machine::isIdle);
+    final long cycles = machine.getCycles();
+    Thread.sleep(20);
+    assertEquals("No slices while halted", cycles, machine.getCycles());
+
+    for (int i = 1; i <= 3; i++) {
+      computer.getInterruptController().request(7);
+      final int expected = i;
+      await(() -> machine.isIdle() && (computer.getCPU().getRegister(0).get() == expected));
+    }
+    assertNull(machine.getFailure());
+  }
+
+  @Test
+  public void testRemovedMachineStops() throws InterruptedException {
+    final Host.Machine machine = host.add(load(0003, 0303, 0x00, 0x00));
+    await(() -> machine.getCycles() > 0);
+    host.remove(machine);
+    Thread.sleep(5);
+    final long cycles = machine.getCycles();
+    Thread.sleep(20);
+    assertEquals(cycles, machine.getCycles());
+    assertTrue(host.getMachines().isEmpty());
+  }
+
+  @Test
+  public void testBreakpointStaysStoppedAcrossSlices() throws InterruptedException {
+    // loop: INX B; JMP loop
+    final Computer computer = load(0003, 0303, 0x00, 0x00);
+    final Debugger debugger = computer.getCPU().getDebugger();
+    debugger.setBreakpoint(0x0001);
+    final Host.Machine machine = host.add(computer);
+    await(machine::isIdle);
+    final long cycles = machine.getCycles();
+    Thread.sleep(20);
+    assertEquals("No slices while stopped", cycles, machine.getCycles());
+    assertEquals(Debugger.Stop.BREAKPOINT, debugger.getStop());
+    assertEquals(1, computer.getCPU().getRegisterPair(0).get());
+
+    // Resuming wakes the machine, which runs round to the breakpoint again
+    debugger.resume();
+    await(() -> machine.isIdle() && (computer.getCPU().getRegisterPair(0).get() == 2));
+    assertEquals(Debugger.Stop.BREAKPOINT, debugger.getStop());
+    assertEquals(0x0001, computer.getCPU().getProgramCounter().get());
+
+    debugger.clearBreakpoint(0x0001);
+    debugger.resume();
+    await(() -> machine.getCycles() > 100_000);
+    assertNull(machine.getFailure());
+  }
+}
@@ -0,0 +1,61 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class InterruptControllerTest {
+
+  private final InterruptController interrupts = new InterruptController();
+
+  @Test
+  public void testAcknowledgeLowestVectorFirst() {
+    assertFalse(interrupts.isPending());
+    interrupts.request(5);
+    interrupts.request(2);
+    assertTrue(interrupts.isPending());
+    assertEquals(2, interrupts.acknowledge());
+    assertEquals(5, interrupts.acknowledge());
+    assertEquals(-1, interrupts.acknowledge());
+    assertFalse(interrupts.isPending());
+  }
+
+  @Test
+  public void testCancel() {
+    interrupts.request(7);
+    interrupts.cancel(7);
+    assertFalse(interrupts.isPending());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidVector() {
+    interrupts.request(8);
+  }
+
+  @Test
+  public void testAwaitTimesOut() {
+    assertFalse(interrupts.await(TimeUnit.MILLISECONDS.toNanos(10)));
+  }
+
+  @Test
+  public void testAwaitWokenByRequest() throws InterruptedException {
+    final Thread device = new Thread(() -> {
+      try {
+        Thread.sleep(50);
+      } catch (final InterruptedException ignored) {
+      }
+      interrupts.request(1);
+    });
+    device.start();
+    assertTrue(interrupts.await(TimeUnit.SECONDS.toNanos(10)));
+    device.join();
+    assertEquals(1, interrupts.acknowledge());
+  }
+}
@@ -0,0 +1,85 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class IoBusTest {
+
+  private final IoBus bus = new IoBus();
+
+  private static class Latch implements IoDevice {
+
+    int lastPort = -1;
+    int value;
+
+    @Override
+    public int in(final int port) {
+      lastPort = port;
+      return value;
+    }
+
+    @Override
+    public void out(final int port,
+                    final int value) {
+      lastPort = port;
+      this.value = value;
+    }
+  }
+
+  @Test
+  public void testUnmappedPortReadsFF() {
+    for (int port = 0; port < IoBus.PORTS; port++) {
+      assertFalse(bus.isMapped(port));
+      assertEquals(0xff, bus.in(port));
+      bus.out(port, 0x12);
+    }
+  }
+
+  @Test
+  public void testAttachedDeviceReceivesPort() {
+    final Latch latch = new Latch();
+    bus.attach(latch, 0x10, 0x11);
+    assertTrue(bus.isMapped(0x11));
+    bus.out(0x11, 0x42);
+    assertEquals(0x11, latch.lastPort);
+    assertEquals(0x42, bus.in(0x10));
+    assertEquals(0x10, latch.lastPort);
+  }
+
+  @Test
+  public void testDetach() {
+    final Latch latch = new Latch();
+    bus.attach(latch, 0x20);
+    bus.detach(0x20);
+    assertFalse(bus.isMapped(0x20));
+    assertEquals(0xff, bus.in(0x20));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAttachInvalidPort() {
+    bus.attach(new Latch(), 256);
+  }
+
+  @Test
+  public void testCPUInputOutput() {
+    final Computer computer = new Computer();
+    final Latch latch = new Latch();
+    computer.attach(latch, 0x07);
+    // MVI A,5Ah; OUT 07h; MVI A,00h; IN 07h
+    final int[] program = { 0076, 0x5a, 0323, 0x07, 0076, 0x00, 0333, 0x07 };
+    for (int i = 0; i < program.length; i++) {
+      computer.getMemory().write(i, program[i]);
+    }
+    computer.getCPU().run(7 + 10 + 7);
+    assertEquals(0x5a, latch.value);
+    assertEquals(0, computer.getCPU().getRegister(7).get());
+    computer.getCPU().step();
+    assertEquals(0x5a, computer.getCPU().getRegister(7).get());
+  }
+}
@@ -1,6 +1,12 @@
 package alternate8888.machine;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
 
 import org.junit.Test;
 
@@ -72,19 +78,57 @@ public class MemoryTest {
     assertEquals(data, memory.get(1, 0xff));
   }
 
-  @Test(expected = ArrayIndexOutOfBoundsException.class)
-  public void testMemoryHighByteOutOfRange() {
-    memory.get(0x20, 0);
+  @Test
+  public void testMemoryHighByteAbove8K() {
+    assertEquals(0, memory.get(0x20, 0));
+    memory.set(0x20, 0, 0x34);
+    assertEquals(0x34, memory.get(0x20, 0));
   }
 
-  @Test(expected = ArrayIndexOutOfBoundsException.class)
-  public void testMemoryHighByteInRangeLowByteOutOfRange() {
-    memory.get(0x1f, 0xa0);
+  @Test
+  public void testMemoryLastByte() {
+    assertEquals(0, memory.get(0xff, 0xff));
+    memory.set(0xff, 0xff, 0x56);
+    assertEquals(0x56, memory.read(0xffff));
   }
 
   @Test
-  public void testMemoryLastByte() {
-    assertEquals(0, memory.get(0x1f, 0x9f));
+  public void testMemoryReadWrite() {
+    memory.write(0x1234, 0x9a);
+    assertEquals(0x9a, memory.read(0x1234));
+    assertEquals(0x9a, memory.get(0x12, 0x34));
+  }
+
+  @Test
+  public void testMemoryWriteMasksToByte() {
+    memory.write(0x10, 0x1ff);
+    assertEquals(0xff, memory.read(0x10));
+  }
+
+  @Test
+  public void testMemoryAddressWrapsAround() {
+    memory.write(0x10000, 0x42);
+    assertEquals(0x42, memory.read(0));
+    assertEquals(0x42, memory.read(-0x10000));
+  }
+
+  @Test
+  public void testMemoryRegisterViewWrapsAround() {
+    final Register16Bit sr = new Register16Bit();
+    sr.set(0xffff);
+    memory.address(sr, 1).set(0x77);
+    assertEquals(0x77, memory.read(0));
+    assertEquals(0x77, memory.address(sr, 1).get());
+  }
+
+  @Test
+  public void testMemoryRegisterViewIsReused() {
+    final Memory.MemoryRegister view = memory.address(0x1234);
+    assertSame(view, memory.address(0x11234));
+    assertEquals(0x1234, view.getAddress());
+    view.set(0x55);
+    assertEquals(0x55, memory.read(0x1234));
+    assertEquals(0x55, new Memory.MemoryRegister(memory, 0x1234).get());
   }
 
   @Test
@@ -97,4 +141,89 @@ public class MemoryTest {
     assertEquals(data, memory.get(sr));
   }
 
+  @Test
+  public void testDirtyPageTracking() {
+    assertTrue(memory.takeDirtyPages().isEmpty());
+    memory.write(0x0000, 1);
+    memory.write(0x00ff, 1);
+    memory.write(0x1234, 1);
+    memory.write(0x10000 + 0xffff, 1);
+    assertTrue(memory.isDirty(0x12));
+    assertFalse(memory.isDirty(0x11));
+
+    final BitSet dirty = memory.takeDirtyPages();
+    assertEquals(3, dirty.cardinality());
+    assertTrue(dirty.get(0x00));
+    assertTrue(dirty.get(0x12));
+    assertTrue(dirty.get(0xff));
+    assertFalse(memory.isDirty(0x12));
+    assertEquals(1, memory.read(0x1234));
+
+    memory.write(0x1200, 2);
+    assertEquals(BitSet.valueOf(new long[] { 1L << 0x12 }), memory.takeDirtyPages());
+  }
+
+  @Test
+  public void testForkSharesPagesUntilWritten() {
+    memory.write(0x0100, 0x11);
+    memory.write(0x0200, 0x22);
+    final Memory fork = memory.fork();
+    assertEquals(0x11, fork.read(0x0100));
+    assertTrue(memory.isShared(0x01));
+    assertTrue(fork.isShared(0x01));
+
+    fork.write(0x0100, 0x33);
+    assertFalse(fork.isShared(0x01));
+    assertEquals(0x33, fork.read(0x0100));
+    assertEquals("Template unaffected", 0x11, memory.read(0x0100));
+
+    memory.write(0x0200, 0x44);
+    assertEquals("Fork unaffected", 0x22, fork.read(0x0200));
+    assertTrue("Untouched page still shared", fork.isShared(0x03));
+  }
+
+  @Test
+  public void testNewMemoryReadsZeroes() {
+    final Memory other = new Memory();
+    memory.write(0x4242, 0x42);
+    assertEquals(0, other.read(0x4242));
+    assertEquals(0, memory.read(0x4343));
+  }
+
+  @Test
+  public void testBulkWriteAcrossPagesAndWrap() {
+    memory.takeDirtyPages();
+    final Memory fork = memory.fork();
+    final byte[] data = { 9, 1, 2, 3, 4, 9 };
+    memory.write(0xFFFE, data, 1, 4);
+    assertEquals(1, memory.read(0xFFFE));
+    assertEquals(2, memory.read(0xFFFF));
+    assertEquals(3, memory.read(0x0000));
+    assertEquals(4, memory.read(0x0001));
+    assertEquals(0, memory.read(0x0002));
+    assertEquals("Fork unaffected", 0, fork.read(0xFFFE));
+
+    final BitSet dirty = new BitSet();
+    dirty.set(0x00);
+    dirty.set(0xFF);
+    assertEquals(dirty, memory.takeDirtyPages());
+  }
+
+  @Test
+  public void testBulkReadAcrossPagesAndWrap() {
+    memory.write(0xFFFE, 1);
+    memory.write(0xFFFF, 2);
+    memory.write(0x0000, 3);
+    memory.write(0x0001, 4);
+    memory.takeDirtyPages();
+    final byte[] data = { 9, 9, 9, 9, 9, 9 };
+    memory.read(0xFFFE, data, 1, 4);
+    assertArrayEquals(new byte[] { 9, 1, 2, 3, 4, 9 }, data);
+    assertTrue("Reads dirty nothing", memory.takeDirtyPages().isEmpty());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testBulkReadRejectsBadRange() {
+    memory.read(0, new byte[4], 2, 3);
+  }
 }
@@ -0,0 +1,107 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class ProfilerTest {
+
+  private final Memory memory = new Memory();
+  private final CPU cpu = new CPU(memory);
+  private final Profiler profiler = new Profiler();
+
+  @Test
+  public void testCountsOpcodesAndAddresses() {
+    // MVI B,3; loop: DCR B; JNZ loop; HLT
+    Programs.load(memory, 0, 0006, 3, 0005, 0302, 0x02, 0x00, 0166);
+    cpu.setProfiler(profiler);
+    cpu.run(1000);
+
+    assertEquals(1, profiler.getAddressCount(0));
+    assertEquals(3, profiler.getAddressCount(2));
+    assertEquals(3, profiler.getAddressCount(3));
+    assertEquals(1, profiler.getAddressCount(6));
+    assertEquals(3, profiler.getOpcodeCount(0005));
+    assertEquals(15, profiler.getOpcodeCycles(0005));
+    assertEquals(30, profiler.getOpcodeCycles(0302));
+  }
+
+  @Test
+  public void testDetachedProfilerCountsNothing() {
+    Programs.load(memory, 0, 0000, 0000, 0166);
+    cpu.setProfiler(profiler);
+    cpu.step();
+    cpu.setProfiler(null);
+    cpu.run(1000);
+    assertEquals(1, profiler.getOpcodeCount(0000));
+  }
+
+  @Test
+  public void testConditionalCallsCountOnlyWhenTaken() {
+    // LXI SP,1000h; XRA A; CNZ 0010h; CZ 0010h; HLT ... 0010h: RNZ; RET
+    Programs.load(memory, 0, 0061, 0x00, 0x10, 0257, 0304, 0x10, 0x00, 0314, 0x10, 0x00, 0166);
+    Programs.load(memory, 0x10, 0300, 0311);
+    cpu.setProfiler(profiler);
+    cpu.run(1000);
+    assertEquals(0, profiler.getDepth());
+    assertEquals(1, profiler.getAddressCount(0x10));
+  }
+
+  @Test
+  public void testCollapsedStacks() throws IOException {
+    // LXI SP,1000h; CALL 0010h; HLT ... 0010h: CALL 0020h; RET ... 0020h: RET
+    Programs.load(memory, 0, 0061, 0x00, 0x10, 0315, 0x10, 0x00, 0166);
+    Programs.load(memory, 0x10, 0315, 0x20, 0x00, 0311);
+    Programs.load(memory, 0x20, 0311);
+    cpu.setProfiler(profiler);
+    cpu.run(1000);
+
+    final StringBuilder out = new StringBuilder();
+    profiler.writeCollapsedStacks(out);
+    // LXI, CALL and HLT in the root; CALL and RET in 0010h; RET in 0020h
+    assertEquals("root 34\n"
+                 + "root;0010h 27\n"
+                 + "root;0010h;0020h 10\n", out.toString());
+  }
+
+  @Test
+  public void testInterruptEntersFrame() throws IOException {
+    // EI; loop: JMP loop ... 0038h: RET
+    Programs.load(memory, 0, 0373, 0303, 0x01, 0x00);
+    Programs.load(memory, 0x38, 0311);
+    cpu.getStackPointer().set(0x1000);
+    cpu.setProfiler(profiler);
+    cpu.run(14);
+    cpu.getInterruptController().request(7);
+    // Accepts the interrupt and executes the RET
+    cpu.step();
+    assertEquals(0, profiler.getDepth());
+    assertEquals(1, profiler.getOpcodeCount(0377));
+
+    final StringBuilder out = new StringBuilder();
+    profiler.writeCollapsedStacks(out);
+    assertEquals("root 14\n"
+                 + "root;0038h 21\n", out.toString());
+  }
+
+  @Test
+  public void testReport() throws IOException {
+    // loop: INR A; JMP loop
+    Programs.load(memory, 0, 0074, 0303, 0x00, 0x00);
+    cpu.setProfiler(profiler);
+    cpu.run(150);
+
+    final StringBuilder out = new StringBuilder();
+    profiler.writeReport(out, 10);
+    final String report = out.toString();
+    assertTrue(report, report.startsWith("20 instructions, 150 cycles"));
+    assertTrue(report, report.contains("  C3h            10             100   66.7"));
+    assertTrue(report, report.contains("  0000h            10   50.0"));
+  }
+}
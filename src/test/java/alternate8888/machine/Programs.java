@@ -0,0 +1,23 @@
+package alternate8888.machine;
+
+/**
+ * Helpers for loading test programs.
+ *
+ * @author Tabby Cromarty
+ */
+final class Programs {
+
+  private Programs() {
+  }
+
+  /**
+   * Writes the program bytes to memory from the address on.
+   */
+  static void load(final Memory memory,
+                   final int address,
+                   final int... program) {
+    for (int i = 0; i < program.length; i++) {
+      memory.write(address + i, program[i]);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class SnapshotTest {
+
+  private final Computer original = new Computer();
+
+  /**
+   * Counts B down from 10, adding it to A each time, then enables interrupts
+   * and halts.
+   */
+  private void boot() {
+    // LXI SP,1000h; MVI B,10; loop: ADD B; DCR B; JNZ loop; EI; HLT
+    final int[] program = { 0061, 0x00, 0x10, 0006, 10, 0200, 0005, 0302, 0x05, 0x00, 0373, 0166 };
+    for (int i = 0; i < program.length; i++) {
+      original.getMemory().write(i, program[i]);
+    }
+    original.getMemory().write(0xFFFF, 0x5A);
+    original.getCPU().run(1000);
+  }
+
+  private static void assertSameState(final Computer expected,
+                                      final Computer actual) {
+    final CPU a = expected.getCPU();
+    final CPU b = actual.getCPU();
+    for (int reg = 0; reg < 8; reg++) {
+      if (reg != 6) {
+        assertEquals(a.getRegister(reg).get(), b.getRegister(reg).get());
+      }
+    }
+    assertEquals(a.getStatusBits().get(), b.getStatusBits().get());
+    assertEquals(a.getProgramCounter().get(), b.getProgramCounter().get());
+    assertEquals(a.getStackPointer().get(), b.getStackPointer().get());
+    assertEquals(a.isInterruptsEnabled(), b.isInterruptsEnabled());
+    assertEquals(a.isHalted(), b.isHalted());
+    assertEquals(a.getCycles(), b.getCycles());
+    assertTrue(Arrays.equals(Snapshot.save(expected).array(), Snapshot.save(actual).array()));
+  }
+
+  @Test
+  public void testChannelRoundTrip() throws IOException {
+    boot();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Snapshot.save(original, Channels.newChannel(bytes));
+    assertEquals(Snapshot.SIZE, bytes.size());
+
+    final Computer copy = new Computer();
+    Snapshot.restore(copy, Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+    assertSameState(original, copy);
+    assertEquals(55, copy.getCPU().getRegister(7).get());
+    assertTrue(copy.getCPU().isHalted());
+    assertEquals(0x5A, copy.getMemory().read(0xFFFF));
+  }
+
+  @Test
+  public void testBufferRestoresManyMachines() throws IOException {
+    boot();
+    final ByteBuffer snapshot = Snapshot.save(original);
+    for (int i = 0; i < 3; i++) {
+      final Computer copy = new Computer();
+      Snapshot.restore(copy, snapshot);
+      assertSameState(original, copy);
+    }
+    assertEquals(0, snapshot.position());
+  }
+
+  @Test
+  public void testRestoredMachineResumes() throws IOException {
+    boot();
+    final Computer copy = new Computer();
+    Snapshot.restore(copy, Snapshot.save(original));
+    original.getInterruptController().request(7);
+    copy.getInterruptController().request(7);
+    original.getCPU().step();
+    copy.getCPU().step();
+    assertSameState(original, copy);
+    assertEquals("RST 7 then the NOP at 0038h", 0x39, copy.getCPU().getProgramCounter().get());
+  }
+
+  @Test
+  public void testBadMagicRejected() {
+    final ByteBuffer snapshot = Snapshot.save(original);
+    snapshot.put(0, (byte) 0);
+    try {
+      Snapshot.restore(new Computer(), snapshot);
+      fail("Expected IOException");
+    } catch (final IOException e) {
+      assertEquals("Not a machine snapshot", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testTruncatedSnapshotRejected() {
+    final byte[] bytes = Arrays.copyOf(Snapshot.save(original).array(), Snapshot.SIZE - 1);
+    try {
+      Snapshot.restore(new Computer(), Channels.newChannel(new ByteArrayInputStream(bytes)));
+      fail("Expected IOException");
+    } catch (final IOException e) {
+      assertEquals("Truncated snapshot", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testTruncatedRestoreLeavesCpuAlone() {
+    boot();
+    final byte[] bytes = Arrays.copyOf(Snapshot.save(original).array(), Snapshot.SIZE - 1);
+    final Computer copy = new Computer();
+    try {
+      Snapshot.restore(copy, Channels.newChannel(new ByteArrayInputStream(bytes)));
+      fail("Expected IOException");
+    } catch (final IOException e) {
+      // Memory is loaded before the CPU, so the CPU has not been touched
+      assertEquals(0, copy.getCPU().getCycles());
+      assertEquals(0, copy.getCPU().getPC());
+    }
+  }
+
+  @Test
+  public void testBufferRestoreFromOffset() throws IOException {
+    boot();
+    final ByteBuffer snapshot = ByteBuffer.allocate(Snapshot.SIZE + 5);
+    snapshot.position(5);
+    snapshot.put(Snapshot.save(original));
+    snapshot.position(5);
+    final Computer copy = new Computer();
+    Snapshot.restore(copy, snapshot);
+    assertSameState(original, copy);
+    assertEquals(5, snapshot.position());
+  }
+
+  @Test
+  public void testDeltaHoldsOnlyDirtyPages() throws IOException {
+    boot();
+    final Computer copy = new Computer();
+    Snapshot.restore(copy, Snapshot.save(original));
+    original.getMemory().takeDirtyPages();
+
+    original.getMemory().write(0x2000, 0x11);
+    original.getMemory().write(0x20ff, 0x22);
+    original.getMemory().write(0x8000, 0x33);
+    original.getCPU().getRegister(7).set(0x99);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    assertEquals(2, Snapshot.saveDelta(original, Channels.newChannel(bytes)));
+    assertEquals(Snapshot.HEADER_SIZE + 32 + (2 * Memory.PAGE_SIZE), bytes.size());
+    assertTrue(original.getMemory().takeDirtyPages().isEmpty());
+
+    Snapshot.restoreDelta(copy, Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+    assertSameState(original, copy);
+
+    final ByteArrayOutputStream empty = new ByteArrayOutputStream();
+    assertEquals(0, Snapshot.saveDelta(original, Channels.newChannel(empty)));
+    assertEquals(Snapshot.HEADER_SIZE + 32, empty.size());
+  }
+
+  @Test
+  public void testDeltaIsNotASnapshot() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Snapshot.saveDelta(original, Channels.newChannel(bytes));
+    try {
+      Snapshot.restore(new Computer(), Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+      fail("Expected IOException");
+    } catch (final IOException e) {
+      assertEquals("Not a machine snapshot", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testForkedComputerMatchesTemplate() throws IOException {
+    boot();
+    final Computer fork = original.fork();
+    assertSameState(original, fork);
+    fork.getMemory().write(0xFFFF, 0x00);
+    assertEquals(0x5A, original.getMemory().read(0xFFFF));
+  }
+}
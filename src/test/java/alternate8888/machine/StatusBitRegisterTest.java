@@ -1,5 +1,6 @@
 package alternate8888.machine;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -97,4 +98,58 @@ public class StatusBitRegisterTest {
     assertFalse(status.isAuxCarry());
   }
 
+  @Test
+  public void testSignZeroParityTable() {
+    for (int value = 0; value < 256; value++) {
+      int expected = 0;
+      if ((value & 0x80) != 0) {
+        expected |= 0x80;
+      }
+      if (value == 0) {
+        expected |= 0x40;
+      }
+      if ((Integer.bitCount(value) % 2) == 0) {
+        expected |= 0x04;
+      }
+      assertEquals("flags for " + value, expected, StatusBitRegister.signZeroParity(value));
+    }
+  }
+
+  @Test
+  public void testAssignSignZeroParity() {
+    status.setCarry();
+    status.setAuxCarry();
+    for (int value = 0; value < 256; value++) {
+      status.assignSignZeroParity(value);
+      assertEquals((value & 0x80) != 0, status.isSign());
+      assertEquals(value == 0, status.isZero());
+      assertEquals((Integer.bitCount(value) % 2) == 0, status.isParity());
+      assertTrue(status.isCarry());
+      assertTrue(status.isAuxCarry());
+    }
+    assertEquals(0x02, status.get() & 0x2a);
+  }
+
+  @Test
+  public void testAuxCarryAddTable() {
+    for (int a = 0; a < 256; a++) {
+      for (int b = 0; b < 256; b++) {
+        final int result = (a + b) & 0xff;
+        final boolean expected = ((a & 0x0f) + (b & 0x0f)) > 0x0f;
+        assertEquals(a + " + " + b, expected, StatusBitRegister.auxCarryAdd(a, b, result) != 0);
+      }
+    }
+  }
+
+  @Test
+  public void testAuxCarrySubtractTable() {
+    for (int a = 0; a < 256; a++) {
+      for (int b = 0; b < 256; b++) {
+        final int result = (a - b) & 0xff;
+        final boolean expected = ((a & 0x0f) + (~b & 0x0f) + 1) > 0x0f;
+        assertEquals(a + " - " + b, expected, StatusBitRegister.auxCarrySubtract(a, b, result) != 0);
+      }
+    }
+  }
+
 }
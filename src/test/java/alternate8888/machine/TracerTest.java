@@ -0,0 +1,144 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class TracerTest {
+
+  private final Memory memory = new Memory();
+  private final CPU cpu = new CPU(memory);
+
+  private Path file;
+
+  @Before
+  public void createFile() throws IOException {
+    file = Files.createTempFile("trace", ".bin");
+  }
+
+  @After
+  public void deleteFile() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  private ByteBuffer readTrace() throws IOException {
+    final ByteBuffer trace = ByteBuffer.wrap(Files.readAllBytes(file));
+    assertEquals(Tracer.MAGIC, trace.getInt());
+    assertEquals(Tracer.VERSION, trace.getShort());
+    assertEquals(Tracer.RECORD_SIZE, trace.getShort());
+    return trace;
+  }
+
+  @Test
+  public void testRecordsEachInstruction() throws IOException {
+    // LXI H,1234h; MVI A,56h; MOV M,A; HLT
+    Programs.load(memory, 0, 0041, 0x34, 0x12, 0076, 0x56, 0167, 0166);
+    try (Tracer tracer = new Tracer(file)) {
+      cpu.setTracer(tracer);
+      cpu.run(1000);
+      cpu.setTracer(null);
+    }
+
+    final ByteBuffer trace = readTrace();
+    assertEquals(4 * Tracer.RECORD_SIZE, trace.remaining());
+
+    // LXI H,1234h
+    int record = trace.position();
+    assertEquals(0, trace.getShort(record));
+    assertEquals(0041, trace.get(record + 2) & 0xff);
+    assertEquals(0, trace.get(record + 3));
+    assertEquals(0x1234, trace.getShort(record + 4) & 0xffff);
+    assertEquals(0, trace.getShort(record + 12));
+
+    // MVI A,56h sees HL as set by the instruction before
+    record += Tracer.RECORD_SIZE;
+    assertEquals(3, trace.getShort(record));
+    assertEquals(0076, trace.get(record + 2) & 0xff);
+    assertEquals(10, trace.get(record + 3));
+    assertEquals(0x56, trace.getShort(record + 4));
+    assertEquals(0, trace.get(record + 6));
+    assertEquals(0x1234, trace.getShort(record + 12) & 0xffff);
+
+    // MOV M,A
+    record += Tracer.RECORD_SIZE;
+    assertEquals(5, trace.getShort(record));
+    assertEquals(0167, trace.get(record + 2) & 0xff);
+    assertEquals(7, trace.get(record + 3));
+    assertEquals(0, trace.getShort(record + 4));
+    assertEquals(0x56, trace.get(record + 6) & 0xff);
+  }
+
+  @Test
+  public void testDecodeCacheRecordsTheSameTrace() throws IOException {
+    // LXI H,1234h; MVI A,56h; MOV M,A; HLT
+    Programs.load(memory, 0, 0041, 0x34, 0x12, 0076, 0x56, 0167, 0166);
+    try (Tracer tracer = new Tracer(file)) {
+      cpu.setTracer(tracer);
+      cpu.run(1000);
+      cpu.setTracer(null);
+    }
+    final byte[] plain = Files.readAllBytes(file);
+
+    final Memory decodedMemory = new Memory();
+    final CPU decoded = new CPU(decodedMemory);
+    decoded.setDecodeCacheEnabled(true);
+    Programs.load(decodedMemory, 0, 0041, 0x34, 0x12, 0076, 0x56, 0167, 0166);
+    try (Tracer tracer = new Tracer(file)) {
+      decoded.setTracer(tracer);
+      decoded.run(1000);
+      decoded.setTracer(null);
+    }
+    assertArrayEquals(plain, Files.readAllBytes(file));
+  }
+
+  @Test
+  public void testWrapsRingWithoutLosingRecords() throws IOException {
+    // loop: INX B; JMP loop
+    Programs.load(memory, 0, 0003, 0303, 0x00, 0x00);
+    final int instructions = 10_000;
+    try (Tracer tracer = new Tracer(file, 16, 2)) {
+      cpu.setTracer(tracer);
+      for (int i = 0; i < instructions; i++) {
+        cpu.step();
+      }
+      cpu.setTracer(null);
+    }
+
+    final ByteBuffer trace = readTrace();
+    assertEquals(instructions * Tracer.RECORD_SIZE, trace.remaining());
+    for (int i = 0; i < instructions; i++) {
+      final int record = Tracer.HEADER_SIZE + (i * Tracer.RECORD_SIZE);
+      assertEquals((i % 2) == 0 ? 0 : 1, trace.getShort(record));
+      // BC counts the INX B executed before this record
+      assertEquals((i + 1) / 2, trace.getShort(record + 8) & 0xffff);
+    }
+  }
+
+  @Test
+  public void testNoRecordsAfterDetaching() throws IOException {
+    Programs.load(memory, 0, 0000, 0000, 0166);
+    try (Tracer tracer = new Tracer(file)) {
+      cpu.setTracer(tracer);
+      cpu.step();
+      cpu.setTracer(null);
+      cpu.run(1000);
+    }
+    assertEquals(Tracer.RECORD_SIZE, readTrace().remaining());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRingNeedsTwoSegments() throws IOException {
+    new Tracer(file, 16, 1);
+  }
+}
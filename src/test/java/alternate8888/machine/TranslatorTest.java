@@ -0,0 +1,183 @@
+package alternate8888.machine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * @author Tabby Cromarty
+ */
+public class TranslatorTest {
+
+  private static final int A = 7;
+
+  /**
+   * Sums 1..200 into HL with a subroutine call per step, storing each partial
+   * sum at 2000h, then halts.
+   */
+  private static final int[] SUM_PROGRAM = {
+      // 0000: LXI SP,1000h; LXI H,0; MVI B,200
+      0061, 0x00, 0x10, 0041, 0x00, 0x00, 0006, 200,
+      // 0008: loop: CALL add; SHLD 2000h; DCR B; JNZ loop; HLT
+      0315, 0x20, 0x00, 0042, 0x00, 0x20, 0005, 0302, 0x08, 0x00, 0166,
+      0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+      // 0020: add: MOV E,B; MVI D,0; DAD D; RET
+      0130, 0026, 0x00, 0031, 0311 };
+
+  private static Computer load(final int[] program) {
+    final Computer computer = new Computer();
+    for (int i = 0; i < program.length; i++) {
+      computer.getMemory().write(i, program[i]);
+    }
+    return computer;
+  }
+
+  @Test
+  public void testTranslatedMatchesInterpreted() {
+    final Computer interpreted = load(SUM_PROGRAM);
+    final Computer translated = load(SUM_PROGRAM);
+    translated.getCPU().setTranslationEnabled(true);
+
+    interpreted.getCPU().run(Long.MAX_VALUE / 2);
+    translated.getCPU().run(Long.MAX_VALUE / 2);
+
+    assertTrue(translated.getCPU().isTranslationEnabled());
+    assertTrue(translated.getCPU().getTranslatedBlocks() > 0);
+    assertTrue(translated.getCPU().isHalted());
+    assertEquals(20100, translated.getCPU().getRegisterPair(2).get());
+    assertEquals(ByteBuffer.wrap(Snapshot.save(interpreted).array()), ByteBuffer.wrap(Snapshot.save(translated).array()));
+  }
+
+  @Test
+  public void testSelfModifyingCodeInvalidatesBlock() {
+    // 0000: loop: INR A; MVI B,n; INX H; MOV C,B; JMP loop
+    // run hot, then patch the MVI operand from outside and from inside a block
+    final Computer computer = load(new int[] { 0074, 0006, 0x11, 0043, 0110, 0303, 0x00, 0x00 });
+    final CPU cpu = computer.getCPU();
+    cpu.setTranslationEnabled(true);
+    cpu.run(10_000);
+    assertEquals(1, cpu.getTranslatedBlocks());
+    assertEquals(0x11, cpu.getRegister(1).get());
+
+    computer.getMemory().write(0x0002, 0x22);
+    assertEquals(1, cpu.getInvalidatedBlocks());
+    cpu.run(10_000);
+    assertEquals(0x22, cpu.getRegister(1).get());
+    assertEquals(2, cpu.getTranslatedBlocks());
+  }
+
+  @Test
+  public void testBlockStopsAfterWritingOwnCode() {
+    // 0000: LXI H,0008h; MVI M,0Ch; INR A; INR A; INR A; JMP 0000h
+    // The MVI M turns the second INR A (0008h) into INR C (0Ch)
+    final Computer computer = load(new int[] { 0041, 0x08, 0x00, 0066, 0014, 0074, 0074, 0074, 0074, 0303, 0x00,
+                                               0x00 });
+    final CPU cpu = computer.getCPU();
+    cpu.setTranslationEnabled(true);
+    computer.getMemory().write(0x0008, 0074);
+    // first pass interpreted writes the page and is never translated while it keeps doing so
+    cpu.run(100_000);
+    final Computer reference = load(new int[] { 0041, 0x08, 0x00, 0066, 0014, 0074, 0074, 0074, 0074, 0303, 0x00,
+                                                0x00 });
+    reference.getMemory().write(0x0008, 0074);
+    reference.getCPU().run(100_000);
+    assertEquals(reference.getCPU().getRegister(A).get(), cpu.getRegister(A).get());
+    assertEquals(reference.getCPU().getRegister(1).get(), cpu.getRegister(1).get());
+    assertEquals(reference.getCPU().getCycles(), cpu.getCycles());
+  }
+
+  @Test
+  public void testInterruptAcceptedBetweenBlocks() {
+    // 0000: EI; loop: INX D; JMP loop   0038h: HLT
+    final Computer computer = load(new int[] { 0373, 0023, 0303, 0x01, 0x00 });
+    computer.getMemory().write(0x0038, 0166);
+    final CPU cpu = computer.getCPU();
+    cpu.getStackPointer().set(0x1000);
+    cpu.setTranslationEnabled(true);
+    cpu.run(10_000);
+    computer.getInterruptController().request(7);
+    cpu.run(10_000);
+    assertTrue(cpu.isHalted());
+    assertEquals(0x39, cpu.getProgramCounter().get());
+    assertFalse(cpu.isInterruptsEnabled());
+  }
+
+  @Test
+  public void testDisablingDropsTranslations() {
+    final Computer computer = load(SUM_PROGRAM);
+    final CPU cpu = computer.getCPU();
+    cpu.setTranslationEnabled(true);
+    cpu.run(5_000);
+    cpu.setTranslationEnabled(false);
+    assertFalse(cpu.isTranslationEnabled());
+    assertEquals(0, cpu.getTranslatedBlocks());
+    cpu.run(Long.MAX_VALUE / 2);
+    assertEquals(20100, cpu.getRegisterPair(2).get());
+  }
+
+  @Test
+  public void testInvalidationClearsEveryPageOfBlock() {
+    // 00FCh: loop: INR A; INR A; INR A; INR A; JMP loop, the JMP on page 1
+    final Computer computer = new Computer();
+    final Memory memory = computer.getMemory();
+    final int[] loop = { 0074, 0074, 0074, 0074, 0303, 0xFC, 0x00 };
+    for (int i = 0; i < loop.length; i++) {
+      memory.write(0x00FC + i, loop[i]);
+    }
+    final CPU cpu = computer.getCPU();
+    cpu.getProgramCounter().set(0x00FC);
+    cpu.setTranslationEnabled(true);
+    for (int round = 1; round <= 10; round++) {
+      // Enough passes of the 30-cycle loop to pass the backed-off threshold
+      cpu.run(30L * (Translator.COMPILE_THRESHOLD << round));
+      assertEquals(round, cpu.getTranslatedBlocks());
+      assertEquals(1, cpu.getTranslator().getPageBlockCount(0));
+      assertEquals(1, cpu.getTranslator().getPageBlockCount(1));
+      // Rewrite a byte on the first page with its own value
+      memory.write(0x0000, 0);
+      assertEquals(round, cpu.getInvalidatedBlocks());
+      assertEquals(0, cpu.getTranslator().getPageBlockCount(0));
+      assertEquals(0, cpu.getTranslator().getPageBlockCount(1));
+    }
+  }
+
+  @Test
+  public void testInvalidatedBlockBacksOff() {
+    // 0000: loop: INR A; STA 0010h; JMP loop, writing into its own page
+    final Computer computer = load(new int[] { 0074, 0062, 0x10, 0x00, 0303, 0x00, 0x00 });
+    final CPU cpu = computer.getCPU();
+    cpu.setTranslationEnabled(true);
+    cpu.run(100_000);
+    // Each write drops the block, and each drop doubles the entries needed to
+    // translate it again; without that it would be redefined every 32 of the
+    // 3500-odd passes
+    assertTrue(cpu.getTranslatedBlocks() < 20);
+    assertTrue(cpu.getTranslator().getThreshold(0) > Translator.COMPILE_THRESHOLD);
+
+    for (int round = 0; round < 20; round++) {
+      cpu.run(1_000_000);
+    }
+    assertEquals(Translator.COMPILE_THRESHOLD << Translator.MAX_BACKOFF, cpu.getTranslator().getThreshold(0));
+  }
+
+  @Test
+  public void testUnavailableTranslatorFallsBack() {
+    final Computer computer = load(SUM_PROGRAM);
+    final CPU cpu = computer.getCPU();
+    cpu.setDecodeCacheEnabled(true);
+    cpu.setTranslationEnabled(true);
+    cpu.run(5_000);
+    cpu.getTranslator().disable();
+    assertFalse(cpu.isTranslationEnabled());
+
+    cpu.run(Long.MAX_VALUE / 2);
+    assertNull(cpu.getTranslator());
+    assertTrue(cpu.isDecodeCacheEnabled());
+    assertEquals(20100, cpu.getRegisterPair(2).get());
+  }
+}